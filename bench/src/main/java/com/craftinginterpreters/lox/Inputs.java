@@ -0,0 +1,88 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/*
+ * Sources for the pipeline benchmarks: a script of lox-scripts/ by file
+ * name, or one of the generated programs below, which are large enough
+ * for the front end to dominate over setup.
+ *
+ *   gen-functions     many small functions, each called once
+ *   gen-expressions   long chains of arithmetic over many globals
+ *   gen-nesting       deeply nested blocks reading outer locals
+ *   gen-calls         recursion, closures and string building
+ *
+ * The scripts directory can be moved with -Dlox.scripts=dir.
+ */
+final class Inputs {
+
+    static String load(String name) throws IOException {
+        switch (name) {
+            case "gen-functions": return functions(2000);
+            case "gen-expressions": return expressions(2000);
+            case "gen-nesting": return nesting(200);
+            case "gen-calls": return calls();
+            default:
+                Path scripts = Paths.get(System.getProperty("lox.scripts", "lox-scripts"));
+                return Files.readString(scripts.resolve(name));
+        }
+    }
+
+    private static String functions(int count) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            source.append("fun f").append(i).append("(a, b) {\n")
+                    .append("    var c = a + b * ").append(i).append(";\n")
+                    .append("    if (c > 10) { return c - 1; }\n")
+                    .append("    while (c < 10) { c = c + 1; }\n")
+                    .append("    return c;\n")
+                    .append("}\n");
+        }
+        source.append("var total = 0;\n");
+        for (int i = 0; i < count; i++) {
+            source.append("total = total + f").append(i).append("(").append(i % 7).append(", 2);\n");
+        }
+        return source.append("print total;\n").toString();
+    }
+
+    private static String expressions(int count) {
+        StringBuilder source = new StringBuilder("var v0 = 1;\n");
+        for (int i = 1; i < count; i++) {
+            String previous = "v" + (i - 1);
+            source.append("var v").append(i).append(" = ((").append(previous).append(" + 3) * 2 - ")
+                    .append(previous).append(" / 4) - (").append(previous).append(" - ")
+                    .append(i).append(") * 0.5;\n")
+                    .append("if (!(v").append(i).append(" >= 0) or v").append(i)
+                    .append(" == nil) { v").append(i).append(" = -v").append(i).append("; }\n");
+        }
+        return source.append("print v").append(count - 1).append(";\n").toString();
+    }
+
+    private static String nesting(int depth) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            source.append("{ var x").append(i).append(" = ").append(i == 0 ? "1" : "x0 + x" + (i - 1))
+                    .append(";\n");
+        }
+        source.append("print x0 + x").append(depth - 1).append(";\n");
+        for (int i = 0; i < depth; i++) {
+            source.append("}\n");
+        }
+        return source.toString();
+    }
+
+    private static String calls() {
+        return "fun fib(n) { if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); }\n"
+                + "print fib(15);\n"
+                + "fun makeCounter() { var i = 0; fun count() { i = i + 1; return i; } return count; }\n"
+                + "var counter = makeCounter();\n"
+                + "for (var i = 0; i < 1000; i = i + 1) { counter(); }\n"
+                + "print counter();\n"
+                + "var s = \"\";\n"
+                + "for (var i = 0; i < 200; i = i + 1) { s = s + \"x\"; }\n"
+                + "print s;\n";
+    }
+}
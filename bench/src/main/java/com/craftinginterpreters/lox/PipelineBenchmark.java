@@ -0,0 +1,79 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * One benchmark per pipeline stage, each over every input (see Inputs).
+ * Every stage starts from what the stage before it produced in setup, so
+ * the numbers add up to the cost of the whole pipeline. a.lox does not
+ * resolve; it is interpreted anyway, up to its first runtime error.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PipelineBenchmark {
+
+    @Param({"a.lox", "inline_fun.lox", "lex.lox", "resolution_test.lox", "test.lox",
+            "gen-functions", "gen-expressions", "gen-nesting", "gen-calls"})
+    public String input;
+
+    private final ErrorReporter reporter = ErrorReporter.discarding();
+    private final PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+
+    private String source;
+    private List<Token> tokens;
+    private List<Stmt> statements;
+
+    @Setup
+    public void setup() throws IOException {
+        source = Inputs.load(input);
+        tokens = new Scanner(source, reporter).scanTokens();
+        statements = new Parser(tokens, reporter).parse();
+        new Resolver(reporter).resolve(statements);
+    }
+
+    @Benchmark
+    public Object scan() {
+        return new Scanner(source, reporter).scanTokens();
+    }
+
+    @Benchmark
+    public Object parse() {
+        return new Parser(tokens, reporter).parse();
+    }
+
+    @Benchmark
+    public Object resolve() {
+        Resolver resolver = new Resolver(reporter);
+        resolver.resolve(statements);
+        return resolver;
+    }
+
+    // Includes creating the interpreter and its natives, as every run of a
+    // script does.
+    @Benchmark
+    public Object interpret() {
+        Interpreter interpreter = new Interpreter(out, reporter);
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+}
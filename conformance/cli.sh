@@ -0,0 +1,39 @@
+#!/bin/sh
+# Regression checks for what the golden corpus cannot say, because it takes
+# command line options or more than one process. Each conformance/cli/*.sh
+# holds the checks of one area; a check runs jlox on a script beside it and
+# compares the exit status and everything printed, stdout and stderr
+# together.
+#
+#   conformance/cli.sh [jar]
+
+JAR=${1:-out/lox.jar}
+DIR=conformance/cli
+TMP=$(mktemp -d)
+SERVER=
+trap '[ -n "$SERVER" ] && kill $SERVER 2>/dev/null; rm -rf "$TMP"' EXIT
+failed=0
+
+# check NAME STATUS EXPECTED ARGUMENTS...
+check() {
+    name=$1 status=$2 expected=$3
+    shift 3
+    actual=$(java -jar "$JAR" "$@" 2>&1)
+    code=$?
+    if [ "$code" != "$status" ] || [ "$actual" != "$expected" ]; then
+        echo "$name: exit status $code, expected $status; printed:"
+        printf '%s\n' "$actual" | sed 's/^/    /'
+        failed=1
+    fi
+}
+
+lines() {
+    printf '%s\n' "$@"
+}
+
+for checks in $DIR/*.sh; do
+    [ -e "$checks" ] && . "$checks"
+done
+
+[ $failed = 0 ] && echo "All command line checks passed."
+exit $failed
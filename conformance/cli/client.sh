@@ -0,0 +1,22 @@
+# Sourced by conformance/cli.sh, which defines check and lines.
+
+# The client runs scripts on a server and passes its output and exit status
+# through, and runs them itself when no server is listening.
+export LOX_SOCKET="$TMP/lox.sock"
+java -jar "$JAR" --server 2>/dev/null &
+SERVER=$!
+for i in 1 2 3 4 5 6 7 8 9 10 11 12 13 14 15 16 17 18 19 20; do
+    [ -S "$LOX_SOCKET" ] && break
+    sleep 0.25
+done
+if [ ! -S "$LOX_SOCKET" ]; then
+    echo "client: the server did not start"
+    failed=1
+fi
+check client 0 "$(lines 55 110)" --client $DIR/client.lox
+check client-error 70 "$(lines before "Operand must be a number." "[line 2]")" \
+    --client $DIR/client_error.lox
+kill $SERVER
+wait $SERVER 2>/dev/null
+SERVER=
+check client-fallback 0 "$(lines 55 110)" --client $DIR/client.lox
@@ -0,0 +1,11 @@
+# Sourced by conformance/cli.sh, which defines check and lines.
+
+# Limits end a run with a runtime error at the line that crossed them.
+check limit-steps 70 "$(lines "Step limit of 1000 exceeded." "[line 2]")" \
+    --max-steps 1000 $DIR/limit_steps.lox
+check limit-timeout 70 "$(lines "Time limit of 200ms exceeded." "[line 2]")" \
+    --timeout 200 $DIR/limit_steps.lox
+for mode in tree switch flat; do
+    check limit-recursion-$mode 70 "$(lines start "Stack overflow." "[line 1]")" \
+        --mode=$mode $DIR/limit_recursion.lox
+done
@@ -0,0 +1,14 @@
+# Sourced by conformance/cli.sh, which defines check and lines.
+
+# Snapshots keep what the prelude wrote after it forked, and refuse values
+# they cannot restore.
+check snapshot-save 0 "" --snapshot "$TMP/prelude.snap" $DIR/snapshot_prelude.lox
+check snapshot-restore 0 "$(lines "hello again" 3 "[0, 1, 4, 9]" true)" \
+    --restore "$TMP/prelude.snap" $DIR/snapshot_restored.lox
+check snapshot-task 74 \
+    "Could not save the snapshot: Cannot snapshot <task>; only functions, lists and plain values can be saved." \
+    --snapshot "$TMP/task.snap" $DIR/snapshot_task.lox
+if [ -e "$TMP/task.snap" ]; then
+    echo "snapshot-task: left a partial snapshot behind"
+    failed=1
+fi
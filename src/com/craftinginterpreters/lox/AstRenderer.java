@@ -1,137 +1,260 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
-public class AstRenderer implements Expr.Visitor<String>, Stmt.Visitor<String> {
+/*
+ * Writes programs as a Graphviz digraph, one graph node per AST node, as
+ * it walks them: nothing but the writer's buffer is held in memory, so the
+ * size of the program does not matter.
+ *
+ * Given the counts of a NodeProfile, every node that ran is labeled with
+ * its runs and times and filled from white to red by its share of the
+ * largest self time; nodes that never ran are grey. Bodies of lazy
+ * functions that were never called have not been parsed and show as a
+ * single node.
+ */
+public class AstRenderer implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
 
-    private Map<String, Integer> countMap= new HashMap<>();
+    private final Writer out;
+    private final Map<Object, long[]> counts;
+    private final long hottest;
 
     private int count = 0;
 
+    AstRenderer(Writer out) {
+        this(out, null);
+    }
 
-    String render(List<Stmt> statements) {
-
-        StringBuilder builder = new StringBuilder();
-        builder.append("digraph G {\n");
-        for (var stmt: statements) {
-            builder.append("Program -> ").append(stmt.accept(this));
+    // counts is null when there is no profile to show.
+    AstRenderer(Writer out, Map<Object, long[]> counts) {
+        this.out = out;
+        this.counts = counts;
+        long hottest = 0;
+        if (counts != null) {
+            for (long[] values : counts.values()) {
+                hottest = Math.max(hottest, values[NodeProfile.SELF_NANOS]);
+            }
         }
-        builder.append("\n}");
-
+        this.hottest = hottest;
+    }
 
-        return builder.toString();
+    void render(List<List<Stmt>> programs) throws IOException {
+        try {
+            write("digraph G {\n");
+            write("  node [shape=box, fontname=\"monospace\", style=filled, fillcolor=white];\n");
+            for (var statements : programs) {
+                int program = node(null, "program", null);
+                children(program, statements, null);
+            }
+            write("}\n");
+            out.flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
     @Override
-    public String visitAssignExpr(Expr.Assign expr) {
-        return null;
+    public Integer visitAssignExpr(Expr.Assign expr) {
+        int id = node(expr, "assign " + expr.name.lexeme, expr.name);
+        edge(id, expr.expression.accept(this), null);
+        return id;
     }
 
     @Override
-    public String visitBinaryExpr(Expr.Binary expr) {
-        String op = graphElm(expr.operator.type.toString());
-        return op + ";\n" +
-                op + " -> " + expr.left.accept(this) +
-                op + " -> " + expr.right.accept(this) +
-                op + " [label=\"" + expr.operator.lexeme + "\"];\n";
-
+    public Integer visitBinaryExpr(Expr.Binary expr) {
+        int id = node(expr, "binary " + expr.operator.lexeme, expr.operator);
+        edge(id, expr.left.accept(this), "left");
+        edge(id, expr.right.accept(this), "right");
+        return id;
     }
 
     @Override
-    public String visitGroupingExpr(Expr.Grouping expr) {
-        String group = graphElm("group");
-        return group + ";\n" +
-                group + "->" + expr.expression.accept(this) +
-                group + " [label=\"(...)\"];\n";
+    public Integer visitGroupingExpr(Expr.Grouping expr) {
+        int id = node(expr, "group", null);
+        edge(id, expr.expression.accept(this), null);
+        return id;
     }
 
     @Override
-    public String visitLiteralExpr(Expr.Literal expr) {
-        String lit = graphElm("lit");
-        return lit + ";\n" +
-                lit + " [label=\""+ expr.value +"\"];\n";
+    public Integer visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        String text = value instanceof String ? "\"" + value + "\""
+                : value == null ? "nil" : value.toString();
+        if (value instanceof Double && text.endsWith(".0")) {
+            text = text.substring(0, text.length() - 2);
+        }
+        return node(expr, "literal " + text, null);
     }
 
     @Override
-    public String visitUnaryExpr(Expr.Unary expr) {
-        String op = graphElm(expr.operator.type.toString());
-        return op + ";\n" +
-                op + " -> " + expr.right.accept(this) +
-                op + " [label=\"" + expr.operator.lexeme + "\"];\n";
+    public Integer visitUnaryExpr(Expr.Unary expr) {
+        int id = node(expr, "unary " + expr.operator.lexeme, expr.operator);
+        edge(id, expr.right.accept(this), null);
+        return id;
     }
 
     @Override
-    public String visitCallExpr(Expr.Call expr) {
-        return null;
+    public Integer visitCallExpr(Expr.Call expr) {
+        int id = node(expr, "call", expr.paren);
+        edge(id, expr.callee.accept(this), "callee");
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            edge(id, expr.arguments.get(i).accept(this), "arg " + i);
+        }
+        return id;
     }
 
     @Override
-    public String visitVariableExpr(Expr.Variable expr) {
-        return null;
+    public Integer visitVariableExpr(Expr.Variable expr) {
+        return node(expr, "variable " + expr.name.lexeme, expr.name);
     }
 
     @Override
-    public String visitInlineFunExpr(Expr.InlineFun expr) {
-        return null;
+    public Integer visitInlineFunExpr(Expr.InlineFun expr) {
+        int id = node(expr, "fun" + parameters(expr.parameters), null);
+        body(id, expr.body);
+        return id;
     }
 
     @Override
-    public String visitIfStmt(Stmt.If stmt) {
-        return null;
+    public Integer visitIfStmt(Stmt.If stmt) {
+        int id = node(stmt, "if", null);
+        edge(id, stmt.condition.accept(this), "condition");
+        edge(id, stmt.ifBranch.accept(this), "then");
+        if (stmt.elseBranch != null) edge(id, stmt.elseBranch.accept(this), "else");
+        return id;
     }
 
     @Override
-    public String visitWhileStmt(Stmt.While stmt) {
-        return null;
+    public Integer visitWhileStmt(Stmt.While stmt) {
+        int id = node(stmt, "while", stmt.keyword);
+        edge(id, stmt.condition.accept(this), "condition");
+        edge(id, stmt.whileStmt.accept(this), "body");
+        return id;
     }
 
     @Override
-    public String visitBlockStmt(Stmt.Block stmt) {
-        return null;
+    public Integer visitBlockStmt(Stmt.Block stmt) {
+        int id = node(stmt, "block", null);
+        children(id, stmt.statements, null);
+        return id;
     }
 
     @Override
-    public String visitExpressionStmt(Stmt.Expression stmt) {
-        String exprStmt = graphElm("stmt");
-        return exprStmt + ";\n" +
-                exprStmt + " -> " + stmt.expression.accept(this);
+    public Integer visitExpressionStmt(Stmt.Expression stmt) {
+        int id = node(stmt, "expression", null);
+        edge(id, stmt.expression.accept(this), null);
+        return id;
     }
 
     @Override
-    public String visitPrintStmt(Stmt.Print stmt) {
-        String printStmt = graphElm("print");
-        return printStmt + ";\n" +
-                printStmt + " -> " + stmt.expression.accept(this);
+    public Integer visitPrintStmt(Stmt.Print stmt) {
+        int id = node(stmt, "print", null);
+        edge(id, stmt.expression.accept(this), null);
+        return id;
     }
 
     @Override
-    public String visitVarStmt(Stmt.Var stmt) {
-        return null;
+    public Integer visitVarStmt(Stmt.Var stmt) {
+        int id = node(stmt, "var " + stmt.name.lexeme, stmt.name);
+        if (stmt.initializer != null) edge(id, stmt.initializer.accept(this), null);
+        return id;
     }
 
     @Override
-    public String visitFunStmt(Stmt.Fun stmt) {
-        return null;
+    public Integer visitFunStmt(Stmt.Fun stmt) {
+        int id = node(stmt, "fun " + stmt.name.lexeme + parameters(stmt.parameters), stmt.name);
+        body(id, stmt.body);
+        return id;
     }
 
     @Override
-    public String visitReturnStmt(Stmt.Return stmt) {
-        return null;
+    public Integer visitReturnStmt(Stmt.Return stmt) {
+        int id = node(stmt, "return", stmt.keyword);
+        if (stmt.expression != null) edge(id, stmt.expression.accept(this), null);
+        return id;
     }
 
     @Override
-    public String visitClassStmt(Stmt.Class stmt) {
-        return null;
+    public Integer visitClassStmt(Stmt.Class stmt) {
+        int id = node(stmt, "class " + stmt.name.lexeme, stmt.name);
+        for (Stmt.Fun method : stmt.methods) {
+            edge(id, method.accept(this), "method");
+        }
+        return id;
+    }
+
+    private void body(int function, FunBody body) {
+        List<Stmt> statements = body.built();
+        if (statements == null) {
+            edge(function, node(null, "(not parsed)", null), "body");
+        } else {
+            children(function, statements, "body");
+        }
+    }
+
+    private void children(int parent, List<Stmt> statements, String label) {
+        for (Stmt stmt : statements) {
+            edge(parent, stmt.accept(this), label);
+        }
     }
 
-    //String render
+    private static String parameters(List<Token> parameters) {
+        StringBuilder text = new StringBuilder("(");
+        for (int i = 0; i < parameters.size(); i++) {
+            if (i > 0) text.append(", ");
+            text.append(parameters.get(i).lexeme);
+        }
+        return text.append(")").toString();
+    }
+
+    // Writes a graph node for an AST node, which may be null for nodes of
+    // the graph alone, and returns its id.
+    private int node(Object ast, String label, Token where) {
+        int id = count++;
+        StringBuilder line = new StringBuilder("  n").append(id).append(" [label=\"")
+                .append(escape(label));
+        if (where != null) line.append(" :").append(where.line);
+        if (counts != null && ast != null) {
+            long[] values = counts.get(ast);
+            if (values == null) {
+                line.append("\", color=grey, fontcolor=grey");
+            } else {
+                line.append(String.format(Locale.ROOT, "\\n%d runs\\n%.3f ms, %.3f ms self",
+                        values[NodeProfile.RUNS], values[NodeProfile.TOTAL_NANOS] / 1e6,
+                        values[NodeProfile.SELF_NANOS] / 1e6));
+                double heat = hottest == 0 ? 0
+                        : (double) values[NodeProfile.SELF_NANOS] / hottest;
+                line.append(String.format(Locale.ROOT, "\", fillcolor=\"0.000 %.3f 1.000\"", heat));
+            }
+        } else {
+            line.append('"');
+        }
+        write(line.append("];\n").toString());
+        return id;
+    }
 
-    private String graphElm(String prefix) {
-        var count = countMap.getOrDefault(prefix, 0);
-        var elm = prefix+(count++);
-        countMap.put(prefix, count);
-        return elm;
+    private void edge(int from, int to, String label) {
+        if (label == null) {
+            write("  n" + from + " -> n" + to + ";\n");
+        } else {
+            write("  n" + from + " -> n" + to + " [label=\"" + escape(label) + "\"];\n");
+        }
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private void write(String text) {
+        try {
+            out.write(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 }
@@ -0,0 +1,167 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/*
+ * Runs every .lox file of a directory on a worker pool (--batch). Each
+ * script is compiled and run on its own thread with its own globals, and
+ * its output is buffered and printed in file name order once it is done,
+ * followed by a summary of exit statuses and times.
+ *
+ * An optional prelude is compiled and run once; every script starts from
+ * a copy-on-write fork of the globals it leaves. Flat mode contexts cannot
+ * be forked, so there the compiled prelude runs again for each script.
+ *
+ * With coverage, every script and the prelude count towards it under
+ * their own file names.
+ */
+class Batch {
+
+    private static final class Script {
+        final Path path;
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ByteArrayOutputStream err = new ByteArrayOutputStream();
+        LoxContext context;
+        int status;
+        long compileNanos;
+        long runNanos;
+
+        Script(Path path) {
+            this.path = path;
+        }
+    }
+
+    // Returns the highest exit status of the scripts. limits apply to each
+    // script on its own; coverage may be null.
+    static int run(LoxRuntime runtime, boolean flat, Path directory, Path prelude,
+                   Limits limits, Coverage coverage) throws IOException {
+        long started = System.nanoTime();
+
+        Program preludeProgram = null;
+        LoxContext base = null;
+        if (prelude != null) {
+            preludeProgram = runtime.compile(read(prelude), System.err);
+            if (preludeProgram == null) return 65;
+            if (coverage != null) {
+                coverage.add(preludeProgram, prelude.toString(), new ErrorReporter(System.err));
+            }
+            if (!flat) {
+                base = coverage != null
+                        ? runtime.newContext(System.out, System.err, coverage)
+                        : runtime.newContext(System.out, System.err);
+                if (base.run(preludeProgram) != 0) return 70;
+            }
+        }
+
+        List<Script> scripts = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(path -> path.toString().endsWith(".lox")).sorted()
+                    .forEach(path -> scripts.add(new Script(path)));
+        }
+
+        // Forks are made here, on one thread, before any script runs.
+        for (Script script : scripts) {
+            PrintStream out = new PrintStream(script.out, true);
+            PrintStream err = new PrintStream(script.err, true);
+            if (base != null) {
+                script.context = base.fork(out, err);
+            } else if (coverage != null) {
+                script.context = runtime.newContext(out, err, coverage);
+            } else {
+                script.context = runtime.newContext(out, err);
+            }
+            limits.apply(script.context);
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        List<Future<?>> done = new ArrayList<>();
+        Program shared = preludeProgram;
+        for (Script script : scripts) {
+            done.add(workers.submit(() -> run(runtime, script, flat ? shared : null, coverage)));
+        }
+        workers.shutdown();
+
+        int status = 0;
+        for (int i = 0; i < scripts.size(); i++) {
+            Script script = scripts.get(i);
+            try {
+                done.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 70;
+            } catch (ExecutionException e) {
+                script.status = 70;
+                new PrintStream(script.err, true).println(e.getCause());
+            }
+            System.out.println("==> " + script.path + " <==");
+            System.out.flush();
+            System.out.write(script.out.toByteArray(), 0, script.out.size());
+            System.out.flush();
+            System.err.write(script.err.toByteArray(), 0, script.err.size());
+            System.err.flush();
+            status = Math.max(status, script.status);
+        }
+
+        summary(scripts, System.nanoTime() - started);
+        return status;
+    }
+
+    private static void run(LoxRuntime runtime, Script script, Program prelude,
+                            Coverage coverage) {
+        try {
+            long start = System.nanoTime();
+            Program program = runtime.compile(read(script.path), script.context.reporter);
+            long compiled = System.nanoTime();
+            script.compileNanos = compiled - start;
+            if (program == null) {
+                script.status = 65;
+                return;
+            }
+            if (coverage != null) {
+                coverage.add(program, script.path.toString(), script.context.reporter);
+            }
+            if (prelude != null && script.context.run(prelude) != 0) {
+                script.status = 70;
+            } else {
+                script.status = script.context.run(program);
+            }
+            script.runNanos = System.nanoTime() - compiled;
+        } catch (IOException e) {
+            new PrintStream(script.err, true).println("Could not read " + script.path + ": " + e);
+            script.status = 66;
+        } catch (StackOverflowError e) {
+            new PrintStream(script.err, true).println("Stack overflow.");
+            script.status = 70;
+        }
+    }
+
+    private static void summary(List<Script> scripts, long wallNanos) {
+        int failed = 0;
+        System.out.println();
+        System.out.printf("%-40s %6s %12s %12s%n", "script", "status", "compile", "run");
+        for (Script script : scripts) {
+            if (script.status != 0) failed++;
+            System.out.printf("%-40s %6d %10.2fms %10.2fms%n", script.path.getFileName(),
+                    script.status, script.compileNanos / 1e6, script.runNanos / 1e6);
+        }
+        System.out.printf("%d scripts, %d failed, %.2fms wall%n",
+                scripts.size(), failed, wallNanos / 1e6);
+    }
+
+    private static String read(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), Charset.defaultCharset());
+    }
+}
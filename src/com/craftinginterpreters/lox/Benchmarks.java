@@ -0,0 +1,205 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/*
+ * Runs the programs of benchmarks/ (or another directory) in every
+ * execution mode and reports how fast they run:
+ *
+ *   java -cp out/lox.jar com.craftinginterpreters.lox.Benchmarks [dir]
+ *       [--warmup n] [--iterations n] [--save file]
+ *       [--baseline file] [--threshold percent]
+ *
+ * Each program is compiled once per mode and run in a fresh context, first
+ * warmup times unmeasured and then iterations times measured. Reported are
+ * runs per second, from the median time of a run so that a stray slow run
+ * does not count, and the bytes the JVM allocated per run on the running
+ * thread, which leaves out what parallel mode allocates on other threads.
+ * Every mode must print the same as the first.
+ *
+ * --save writes the results as tab-separated lines. --baseline reads such
+ * a file and makes the exit status 1 when a program runs more than
+ * threshold percent (default 10) fewer times per second than it did.
+ */
+public class Benchmarks {
+
+    private static final String[] MODES = {"tree", "switch", "flat", "parallel"};
+
+    private static final class Result {
+        final String name;
+        final String mode;
+        final double opsPerSecond;
+        final long bytesPerOp;
+
+        Result(String name, String mode, double opsPerSecond, long bytesPerOp) {
+            this.name = name;
+            this.mode = mode;
+            this.opsPerSecond = opsPerSecond;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        String key() {
+            return name + "\t" + mode;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Paths.get("benchmarks");
+        int warmup = 5;
+        int iterations = 10;
+        Path save = null;
+        Path baseline = null;
+        double threshold = 10;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--warmup") && i + 1 < args.length) {
+                warmup = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--iterations") && i + 1 < args.length) {
+                iterations = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--save") && i + 1 < args.length) {
+                save = Paths.get(args[++i]);
+            } else if (arg.equals("--baseline") && i + 1 < args.length) {
+                baseline = Paths.get(args[++i]);
+            } else if (arg.equals("--threshold") && i + 1 < args.length) {
+                threshold = Double.parseDouble(args[++i]);
+            } else if (arg.startsWith("--")) {
+                usage();
+            } else {
+                directory = Paths.get(arg);
+            }
+        }
+        if (iterations < 1) usage();
+
+        List<Path> scripts = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(path -> path.toString().endsWith(".lox")).sorted().forEach(scripts::add);
+        }
+
+        boolean failed = false;
+        List<Result> results = new ArrayList<>();
+        System.out.printf("%-20s %-9s %12s %10s %12s%n", "benchmark", "mode", "ops/s", "ms/op", "KB/op");
+        for (Path script : scripts) {
+            String source = new String(Files.readAllBytes(script), Charset.defaultCharset());
+            String name = script.getFileName().toString();
+            String expected = null;
+            for (String mode : MODES) {
+                boolean parallel = mode.equals("parallel");
+                LoxRuntime runtime = new LoxRuntime(false, parallel ? "tree" : mode, parallel);
+                Program program = runtime.compile(source, System.err);
+                if (program == null) {
+                    System.out.printf("%-20s %-9s does not compile%n", name, mode);
+                    failed = true;
+                    break;
+                }
+
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                if (run(runtime, program, new PrintStream(output, true)) != 0) {
+                    System.out.printf("%-20s %-9s failed:%n%s", name, mode, output);
+                    failed = true;
+                    continue;
+                }
+                if (expected == null) {
+                    expected = output.toString();
+                } else if (!expected.equals(output.toString())) {
+                    System.out.printf("%-20s %-9s prints something else than %s mode%n",
+                            name, mode, MODES[0]);
+                    failed = true;
+                }
+
+                PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+                for (int i = 1; i < warmup; i++) {
+                    run(runtime, program, discard);
+                }
+                long[] nanos = new long[iterations];
+                long allocatedBefore = allocatedBytes();
+                for (int i = 0; i < iterations; i++) {
+                    long start = System.nanoTime();
+                    run(runtime, program, discard);
+                    nanos[i] = System.nanoTime() - start;
+                }
+                long allocated = allocatedBytes() - allocatedBefore;
+                Arrays.sort(nanos);
+
+                Result result = new Result(name, mode, 1e9 / nanos[iterations / 2],
+                        allocatedBefore < 0 ? -1 : allocated / iterations);
+                results.add(result);
+                System.out.printf("%-20s %-9s %12.2f %10.3f %12s%n", name, mode,
+                        result.opsPerSecond, 1e3 / result.opsPerSecond,
+                        result.bytesPerOp < 0 ? "-" : String.format("%.1f", result.bytesPerOp / 1024.0));
+            }
+        }
+
+        if (save != null) {
+            List<String> lines = new ArrayList<>();
+            for (Result result : results) {
+                lines.add(result.key() + "\t" + result.opsPerSecond + "\t" + result.bytesPerOp);
+            }
+            Files.write(save, lines);
+        }
+        if (baseline != null && regressed(results, baseline, threshold)) {
+            failed = true;
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    // Prints every result that is more than threshold percent slower than
+    // in the baseline; returns whether there were any.
+    private static boolean regressed(List<Result> results, Path baseline, double threshold)
+            throws IOException {
+        Map<String, Double> before = new HashMap<>();
+        for (String line : Files.readAllLines(baseline)) {
+            String[] fields = line.split("\t");
+            if (fields.length < 3) continue;
+            before.put(fields[0] + "\t" + fields[1], Double.parseDouble(fields[2]));
+        }
+
+        boolean regressed = false;
+        System.out.println();
+        for (Result result : results) {
+            Double previous = before.get(result.key());
+            if (previous == null) continue;
+            double change = (result.opsPerSecond - previous) / previous * 100;
+            boolean slower = change < -threshold;
+            if (slower) regressed = true;
+            System.out.printf("%-20s %-9s %+8.1f%%%s%n", result.name, result.mode, change,
+                    slower ? "  REGRESSION" : "");
+        }
+        return regressed;
+    }
+
+    private static int run(LoxRuntime runtime, Program program, PrintStream out) {
+        return runtime.newContext(out, out).run(program);
+    }
+
+    // Bytes allocated by this thread so far, or -1 when the JVM cannot say.
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+            if (counting.isThreadAllocatedMemorySupported()) {
+                return counting.getCurrentThreadAllocatedBytes();
+            }
+        }
+        return -1;
+    }
+
+    private static void usage() {
+        System.out.println("Usage: Benchmarks [dir] [--warmup n] [--iterations n] " +
+                "[--save file] [--baseline file] [--threshold percent]");
+        System.exit(64);
+    }
+}
@@ -0,0 +1,49 @@
+package com.craftinginterpreters.lox;
+
+/*
+ * Limits how long one run of a context may take: a number of steps (loop
+ * iterations and calls) and a wall-clock deadline.
+ *
+ * The interpreter counts steps down in a plain int and only calls charge()
+ * when the count runs out, so the budget costs one decrement per step. Each
+ * charge grants up to INTERVAL more steps and is also when the deadline is
+ * checked. Forks made during the run share the budget.
+ */
+final class Budget {
+
+    private static final int INTERVAL = 1 << 14;
+
+    private final long steps;
+    private final long timeoutNanos;
+
+    private long remaining;
+    private long deadline;
+
+    // steps or timeoutNanos may be Long.MAX_VALUE for no limit.
+    Budget(long steps, long timeoutNanos) {
+        this.steps = steps;
+        this.timeoutNanos = timeoutNanos;
+        reset();
+    }
+
+    synchronized void reset() {
+        remaining = steps;
+        long now = System.nanoTime();
+        deadline = timeoutNanos > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + timeoutNanos;
+    }
+
+    // Pays for the step at where; returns how many more steps may run
+    // before the next charge.
+    synchronized int charge(Token where) {
+        if (remaining <= 0) {
+            throw new RuntimeError(where, "Step limit of " + steps + " exceeded.");
+        }
+        if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0) {
+            throw new RuntimeError(where, "Time limit of " + timeoutNanos / 1_000_000 +
+                    "ms exceeded.");
+        }
+        int granted = (int) Math.min(INTERVAL, remaining);
+        remaining -= granted;
+        return granted - 1;
+    }
+}
@@ -0,0 +1,180 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/*
+ * Natives for running Lox functions on other threads:
+ *
+ *   spawn(fn)           runs fn() on the shared pool and returns a task
+ *   join(task)          waits for the task and returns what fn returned
+ *   channel(capacity)   a buffered channel
+ *   send(channel, v)    waits while the channel is full
+ *   receive(channel)    waits while the channel is empty
+ *
+ * A spawned function runs in a fork of the spawning interpreter (see
+ * Interpreter.fork), so it starts from a copy-on-write view of everything
+ * it can reach and its writes stay its own. Only plain values cross threads
+ * after that: nil, booleans, numbers, strings, lists, tasks and channels may be
+ * sent or returned from a task; functions may not. A runtime error in a
+ * task is raised again by join().
+ */
+class Concurrency {
+
+    static final ForkJoinPool POOL = new ForkJoinPool(
+            Runtime.getRuntime().availableProcessors());
+
+    static void define(Environment globals) {
+        globals.define("spawn", new Native("spawn", 1) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (!(arguments.get(0) instanceof LoxFun)) {
+                    // Flat mode's closures end up here too: they keep
+                    // locals in frames, which forks cannot share.
+                    throw new RuntimeError("Can only spawn functions.");
+                }
+                LoxFun function = (LoxFun) arguments.get(0);
+                if (function.arity() != 0) {
+                    throw new RuntimeError("Can only spawn functions without parameters.");
+                }
+                function.closure().freeze();
+                Interpreter child = interpreter.fork(interpreter.out, interpreter.reporter);
+                return new Task(CompletableFuture.supplyAsync(
+                        () -> function.call(child, List.of()), POOL));
+            }
+        });
+
+        globals.define("join", new Native("join", 1) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (!(arguments.get(0) instanceof Task)) {
+                    throw new RuntimeError("Can only join tasks.");
+                }
+                Object result;
+                try {
+                    result = ((Task) arguments.get(0)).future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeError("Interrupted while joining a task.");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeError) throw (RuntimeError) e.getCause();
+                    throw new RuntimeError("Task failed: " + e.getCause());
+                }
+                return shareable(result, "Tasks can only return");
+            }
+        });
+
+        globals.define("channel", new Native("channel", 1) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object capacity = arguments.get(0);
+                if (!(capacity instanceof Double) || (double) capacity < 1) {
+                    throw new RuntimeError("Channel capacity must be a positive number.");
+                }
+                return new Channel((int) (double) capacity);
+            }
+        });
+
+        globals.define("send", new Native("send", 2) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Channel channel = channel(arguments.get(0));
+                Object value = shareable(arguments.get(1), "Channels can only carry");
+                block(() -> {
+                    channel.queue.put(value == null ? NIL : value);
+                    return true;
+                });
+                return null;
+            }
+        });
+
+        globals.define("receive", new Native("receive", 1) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Channel channel = channel(arguments.get(0));
+                Object[] value = new Object[1];
+                block(() -> {
+                    value[0] = channel.queue.take();
+                    return true;
+                });
+                return value[0] == NIL ? null : value[0];
+            }
+        });
+    }
+
+    // Stands in for nil, which a BlockingQueue cannot hold.
+    private static final Object NIL = new Object();
+
+    static Object shareable(Object value, String what) {
+        if (value == null || value instanceof Boolean || value instanceof Double
+                || value instanceof String || value instanceof LoxList
+                || value instanceof Task || value instanceof Channel) {
+            return value;
+        }
+        throw new RuntimeError(what +
+                " nil, booleans, numbers, strings, lists, tasks and channels.");
+    }
+
+    private static Channel channel(Object value) {
+        if (value instanceof Channel) return (Channel) value;
+        throw new RuntimeError("Expected a channel.");
+    }
+
+    private interface Blocking {
+        boolean run() throws InterruptedException;
+    }
+
+    // Lets the pool start another thread while this one waits, so tasks
+    // that wait on each other cannot use up the pool.
+    private static void block(Blocking action) {
+        try {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                boolean done = false;
+
+                @Override
+                public boolean block() throws InterruptedException {
+                    done = action.run();
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return done;
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError("Interrupted while waiting on a channel.");
+        }
+    }
+
+    static final class Task {
+        final CompletableFuture<Object> future;
+
+        Task(CompletableFuture<Object> future) {
+            this.future = future;
+        }
+
+        @Override
+        public String toString() {
+            return "<task>";
+        }
+    }
+
+    static final class Channel {
+        final BlockingQueue<Object> queue;
+
+        Channel(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public String toString() {
+            return "<channel>";
+        }
+    }
+}
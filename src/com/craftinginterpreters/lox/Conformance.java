@@ -0,0 +1,358 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/*
+ * Runs Lox programs in every execution mode and reports each difference
+ * in what they print, the errors they report and the lines those are on,
+ * or their exit status:
+ *
+ *   java -cp out/lox.jar com.craftinginterpreters.lox.Conformance
+ *       [--scripts dir] [--golden dir] [--fuzz n] [--seed n]
+ *       [--modes tree,lazy,...]
+ *
+ * The programs are the scripts in lox-scripts/, the golden corpus in
+ * conformance/, and n (default 200) programs from Fuzzer, seeded with
+ * seed, seed + 1 and so on. A golden program says what it must do in
+ * comments, which every mode has to match:
+ *
+ *   print 1 + 2; // expect: 3
+ *   print -"a";  // expect runtime error: Operand must be a number.
+ *   var a = ;    // Error at ';': Expect expression.
+ *   // [line 7] Error at end: Expected '}' at the end of a block
+ *
+ * and may skip the modes that cannot run it, for a reason given next to
+ * a line like "// skip: flat flat-lazy".
+ *
+ * Everything else must do in each mode what it does in the first, the
+ * tree mode unless --modes says otherwise. The exit status is 65 or 70 as
+ * Lox.runFile() would exit with; Lox also prints the value of a lone
+ * expression that does not compile, which is left out here.
+ *
+ * The modes are the interpreters and the ways a program can get to them:
+ * lazily parsed function bodies, a program read back from the ProgramCache,
+ * the parallel scheduler, and the tree interpreter with coverage probes.
+ * Every run gets a fresh context in which time() and clock() always
+ * return the same, so that scripts printing them can be compared. A run is
+ * stopped after ten seconds. The time each mode took to compile and run
+ * everything is printed at the end, warm-up included, which weighs most
+ * on the first mode; the exit status is 1 when any mode differed.
+ */
+public class Conformance {
+
+    private static final String[] MODES = {
+            "tree", "lazy", "cached", "switch", "flat", "flat-lazy", "parallel", "coverage"};
+
+    private static final Pattern ERROR = Pattern.compile("(?:\\[line (\\d+)\\] )?(Error.*)");
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    // What running a program did.
+    private static final class Outcome {
+        final int status;
+        final String out;
+        final String err;
+
+        Outcome(int status, String out, String err) {
+            this.status = status;
+            this.out = out;
+            this.err = err;
+        }
+    }
+
+    private final String[] modes;
+    private final LoxRuntime[] runtimes;
+    private final long[] nanos;
+    private final int[] divergent;
+    private final Path cacheDirectory;
+    private int programs = 0;
+    private int failed = 0;
+
+    private Conformance(String[] modes) throws IOException {
+        this.modes = modes;
+        runtimes = new LoxRuntime[modes.length];
+        for (int i = 0; i < modes.length; i++) {
+            String mode = modes[i];
+            runtimes[i] = new LoxRuntime(mode.endsWith("lazy"),
+                    mode.startsWith("flat") ? "flat" : mode.equals("switch") ? "switch" : "tree",
+                    mode.equals("parallel"));
+        }
+        nanos = new long[modes.length];
+        divergent = new int[modes.length];
+        cacheDirectory = Files.createTempDirectory("lox-conformance");
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path scripts = Paths.get("lox-scripts");
+        Path golden = Paths.get("conformance");
+        int fuzz = 200;
+        long seed = 1;
+        String[] modes = MODES;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--scripts") && i + 1 < args.length) {
+                scripts = Paths.get(args[++i]);
+            } else if (arg.equals("--golden") && i + 1 < args.length) {
+                golden = Paths.get(args[++i]);
+            } else if (arg.equals("--fuzz") && i + 1 < args.length) {
+                fuzz = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--seed") && i + 1 < args.length) {
+                seed = Long.parseLong(args[++i]);
+            } else if (arg.equals("--modes") && i + 1 < args.length) {
+                modes = args[++i].split(",");
+            } else {
+                usage();
+            }
+        }
+        for (String mode : modes) {
+            if (!Arrays.asList(MODES).contains(mode)) usage();
+        }
+
+        Conformance conformance = new Conformance(modes);
+        try {
+            for (Path script : list(scripts)) {
+                conformance.compare(script.toString(), read(script), null, Set.of(), false);
+            }
+            for (Path program : list(golden)) {
+                String source = read(program);
+                conformance.compare(program.toString(), source, expectations(source),
+                        skipped(source), false);
+            }
+            int[] statuses = new int[3];
+            for (int i = 0; i < fuzz; i++) {
+                String source = new Fuzzer(seed + i).program();
+                int status = conformance.compare("generated (seed " + (seed + i) + ")",
+                        source, null, Set.of(), true);
+                statuses[status == 0 ? 0 : status == 65 ? 1 : 2]++;
+            }
+            if (fuzz > 0) {
+                System.out.printf("Generated %d programs: %d ran, %d did not compile, " +
+                        "%d ended with an error.%n", fuzz, statuses[0], statuses[1], statuses[2]);
+            }
+        } finally {
+            conformance.deleteCache();
+        }
+        System.exit(conformance.report() ? 0 : 1);
+    }
+
+    // Runs source in every mode and prints how they differ from expected,
+    // or from the first mode when there are no expectations, with the
+    // source when show is set. Returns the first mode's exit status.
+    private int compare(String name, String source, Outcome expected, Set<String> skipped,
+                        boolean show) {
+        programs++;
+        Outcome reference = expected;
+        boolean printed = false;
+        int status = 0;
+        for (int i = 0; i < modes.length; i++) {
+            if (skipped.contains(modes[i])) continue;
+            long start = System.nanoTime();
+            Outcome outcome = run(i, name, source);
+            nanos[i] += System.nanoTime() - start;
+            if (i == 0) status = outcome.status;
+            if (reference == null) {
+                reference = outcome;
+                continue;
+            }
+
+            List<String> differences = differences(outcome, reference);
+            if (differences.isEmpty()) continue;
+            divergent[i]++;
+            if (!printed) {
+                failed++;
+                printed = true;
+                System.out.println("FAIL " + name);
+            }
+            for (String difference : differences) {
+                System.out.println("  " + modes[i] + ": " + difference);
+            }
+        }
+        if (printed && show) {
+            for (String line : source.split("\n")) {
+                System.out.println("    | " + line);
+            }
+        }
+        return status;
+    }
+
+    private Outcome run(int mode, String name, String source) {
+        ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(outBytes, true, StandardCharsets.UTF_8);
+        PrintStream err = new PrintStream(errBytes, true, StandardCharsets.UTF_8);
+        LoxRuntime runtime = runtimes[mode];
+
+        int status;
+        try {
+            status = run(runtime, modes[mode], name, source, out, err);
+        } catch (RuntimeException | StackOverflowError e) {
+            err.println("crashed: " + e);
+            status = -1;
+        }
+        return new Outcome(status, outBytes.toString(StandardCharsets.UTF_8),
+                errBytes.toString(StandardCharsets.UTF_8));
+    }
+
+    private int run(LoxRuntime runtime, String mode, String name, String source,
+                    PrintStream out, PrintStream err) {
+        Program program = runtime.compile(source, err);
+        if (program == null) return 65;
+
+        if (mode.equals("cached")) {
+            ProgramCache cache = new ProgramCache(cacheDirectory);
+            byte[] key = ProgramCache.key(source, false);
+            cache.store(key, program);
+            program = cache.load(key);
+            if (program == null) {
+                err.println("could not be read back from the cache");
+                return -1;
+            }
+        }
+
+        LoxContext context;
+        if (mode.equals("coverage")) {
+            Coverage coverage = new Coverage();
+            coverage.add(program, name, new ErrorReporter(err));
+            context = runtime.newContext(out, err, coverage);
+        } else {
+            context = runtime.newContext(out, err);
+        }
+        fixClocks(context.interpreter.globals);
+        context.limit(Long.MAX_VALUE, TIMEOUT_MILLIS);
+        return context.run(program);
+    }
+
+    private static void fixClocks(Environment globals) {
+        globals.define("time", new Native("time", 0) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return "Thu Jan 01 00:00:00 UTC 1970";
+            }
+        });
+        globals.define("clock", new Native("clock", 0) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return 0.0;
+            }
+        });
+    }
+
+    private static List<String> differences(Outcome actual, Outcome expected) {
+        List<String> differences = new ArrayList<>();
+        if (actual.status != expected.status) {
+            differences.add("exit status " + actual.status + ", expected " + expected.status);
+        }
+        difference("output", actual.out, expected.out, differences);
+        difference("error", actual.err, expected.err, differences);
+        return differences;
+    }
+
+    // Adds the first line where actual and expected differ.
+    private static void difference(String stream, String actual, String expected,
+                                   List<String> differences) {
+        if (actual.equals(expected)) return;
+        String[] actualLines = actual.split("\n", -1);
+        String[] expectedLines = expected.split("\n", -1);
+        for (int i = 0; ; i++) {
+            String got = i < actualLines.length ? "\"" + actualLines[i] + "\"" : "nothing";
+            String wanted = i < expectedLines.length ? "\"" + expectedLines[i] + "\"" : "nothing";
+            if (!got.equals(wanted)) {
+                differences.add(stream + " line " + (i + 1) + " is " + got + ", expected " +
+                        wanted);
+                return;
+            }
+        }
+    }
+
+    // What the comments of a golden program say it does.
+    private static Outcome expectations(String source) {
+        StringBuilder out = new StringBuilder();
+        StringBuilder err = new StringBuilder();
+        int status = 0;
+        String[] lines = source.split("\n", -1);
+        for (int i = 0; i < lines.length; i++) {
+            int comment = lines[i].indexOf("// ");
+            if (comment < 0) continue;
+            String note = lines[i].substring(comment + 3);
+            Matcher error = ERROR.matcher(note);
+            if (note.startsWith("expect: ")) {
+                out.append(note.substring("expect: ".length())).append('\n');
+            } else if (note.startsWith("expect runtime error: ")) {
+                err.append(note.substring("expect runtime error: ".length()))
+                        .append("\n[line ").append(i + 1).append("]\n");
+                status = 70;
+            } else if (error.matches()) {
+                err.append("[line ")
+                        .append(error.group(1) != null ? error.group(1) : Integer.toString(i + 1))
+                        .append("] ").append(error.group(2)).append('\n');
+                status = 65;
+            }
+        }
+        return new Outcome(status, out.toString(), err.toString());
+    }
+
+    // The modes a golden program cannot run in, which it lists in a
+    // comment like "// skip: flat flat-lazy".
+    private static Set<String> skipped(String source) {
+        Set<String> skipped = new HashSet<>();
+        for (String line : source.split("\n")) {
+            int comment = line.indexOf("// skip: ");
+            if (comment < 0) continue;
+            skipped.addAll(Arrays.asList(line.substring(comment + "// skip: ".length())
+                    .trim().split("\\s+")));
+        }
+        return skipped;
+    }
+
+    // Prints the time per mode; returns whether no mode differed.
+    private boolean report() {
+        System.out.println();
+        System.out.printf("%-10s %10s %10s %10s%n", "mode", "differed", "ms", "vs " + modes[0]);
+        for (int i = 0; i < modes.length; i++) {
+            System.out.printf("%-10s %10d %10.1f %9.2fx%n", modes[i], divergent[i],
+                    nanos[i] / 1e6, (double) nanos[i] / nanos[0]);
+        }
+        System.out.println();
+        System.out.println(failed + " of " + programs + " programs ran differently.");
+        return failed == 0;
+    }
+
+    private void deleteCache() throws IOException {
+        try (Stream<Path> files = Files.walk(cacheDirectory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) return List.of();
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".lox")).sorted().toList();
+        }
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private static void usage() {
+        System.out.println("Usage: Conformance [--scripts dir] [--golden dir] [--fuzz n] " +
+                "[--seed n] [--modes " + String.join(",", MODES) + "]");
+        System.exit(64);
+    }
+}
@@ -1,5 +1,11 @@
 package com.craftinginterpreters.lox;
 
 public class Constants {
-    public static Object UNINITIALIZED = new Object();
+    public static Object UNINITIALIZED = Uninitialized.INSTANCE;
+
+    // An enum so the marker stays a singleton through serialization.
+    private enum Uninitialized { INSTANCE }
+
+    // Bump whenever a change makes previously cached programs invalid.
+    public static final String VERSION = "jlox-0.2";
 }
@@ -0,0 +1,299 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Line, branch and function coverage (--coverage file), written in the
+ * LCOV tracefile format that genhtml and most CI services read.
+ *
+ * add() gives each basic block of a program one probe: the program itself,
+ * every function body, both branches of an if, the body of a while, and
+ * the statements after one that may return. The probe is kept against the
+ * first statement of the block in a table of this Coverage's own, as a
+ * Program may be shared and its tree is only read. As an Instrument this
+ * only counts the statements that have one; any other statement costs a
+ * lookup, and expressions and calls go by without any work. Each line is
+ * reported with the count of the block its statements are in.
+ *
+ * Counts live in pages of a long[] so that adding programs never moves
+ * them. Forks share the counts and do not lock, so runs on several
+ * threads may lose a few increments, never a block's first. A runtime
+ * error stops a block part way through, but its later lines still count
+ * as run. The `and` and `or` operators evaluate both operands, so they
+ * are not branches.
+ */
+final class Coverage implements Instrument {
+
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private volatile long[][] pages = new long[0][];
+    private int placed = 0;
+
+    // The first statement of each block to its probe. Forks look up while
+    // add() places the probes of another script, so it is concurrent;
+    // statements compare by identity.
+    private final Map<Stmt, Integer> probes = new ConcurrentHashMap<>();
+
+    private final Map<String, Source> sources = new LinkedHashMap<>();
+    private final Set<List<Stmt>> added = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    // What the probes of one source file stand for.
+    private static final class Source {
+        // {line, probe}
+        final List<int[]> lines = new ArrayList<>();
+        // {line, block probe, taken probe, other probe}: for an if, other
+        // is the else branch or -1 without one; for a while, taken is the
+        // body and other is -1 for leaving the loop.
+        final List<int[]> branches = new ArrayList<>();
+        final List<Boolean> loops = new ArrayList<>();
+        final List<String> functionNames = new ArrayList<>();
+        // {line, probe of the body}
+        final List<int[]> functions = new ArrayList<>();
+    }
+
+    @Override
+    public void statement(Interpreter interpreter, Stmt stmt) {
+        Integer probe = probes.get(stmt);
+        if (probe != null) pages[probe >>> PAGE_BITS][probe & (PAGE_SIZE - 1)]++;
+    }
+
+    // Places probes in program, which came from the file named source,
+    // before it runs. Lazy function bodies are built now; errors in them
+    // are reported to reporter and the body is left out.
+    synchronized void add(Program program, String source, ErrorReporter reporter) {
+        if (!added.add(program.statements)) return;
+        Source counted = sources.get(source);
+        if (counted == null) {
+            counted = new Source();
+            sources.put(source, counted);
+        }
+        new Placer(counted, reporter).block(program.statements, -1);
+    }
+
+    private int probe() {
+        int probe = placed++;
+        if (probe >>> PAGE_BITS == pages.length) {
+            long[][] more = new long[pages.length + 1][];
+            System.arraycopy(pages, 0, more, 0, pages.length);
+            more[pages.length] = new long[PAGE_SIZE];
+            pages = more;
+        }
+        return probe;
+    }
+
+    private long count(int probe) {
+        return probe < 0 ? 0 : pages[probe >>> PAGE_BITS][probe & (PAGE_SIZE - 1)];
+    }
+
+    private final class Placer {
+        private final Source source;
+        private final ErrorReporter reporter;
+
+        Placer(Source source, ErrorReporter reporter) {
+            this.source = source;
+            this.reporter = reporter;
+        }
+
+        // A block that starts with statements; block is its probe, or -1
+        // to give it one.
+        void block(List<Stmt> statements, int block) {
+            for (Stmt stmt : statements) {
+                if (block < 0) {
+                    block = probe();
+                    probes.put(stmt, block);
+                }
+                statement(stmt, block);
+                // What follows only runs when this did not return.
+                if (mayReturn(stmt)) block = -1;
+            }
+        }
+
+        // A statement that starts a block of its own.
+        private int branch(Stmt stmt) {
+            int block = probe();
+            probes.put(stmt, block);
+            statement(stmt, block);
+            return block;
+        }
+
+        private void statement(Stmt stmt, int block) {
+            source.lines.add(new int[] {stmt.line, block});
+            switch (stmt.kind) {
+                case Stmt.IF -> {
+                    Stmt.If ifStmt = (Stmt.If) stmt;
+                    expression(ifStmt.condition, stmt.line);
+                    int taken = branch(ifStmt.ifBranch);
+                    int other = ifStmt.elseBranch == null ? -1 : branch(ifStmt.elseBranch);
+                    source.branches.add(new int[] {stmt.line, block, taken, other});
+                    source.loops.add(false);
+                }
+                case Stmt.WHILE -> {
+                    Stmt.While whileStmt = (Stmt.While) stmt;
+                    expression(whileStmt.condition, stmt.line);
+                    int body = branch(whileStmt.whileStmt);
+                    source.branches.add(new int[] {stmt.line, block, body, -1});
+                    source.loops.add(true);
+                }
+                case Stmt.BLOCK -> block(((Stmt.Block) stmt).statements, block);
+                case Stmt.EXPRESSION -> expression(((Stmt.Expression) stmt).expression, stmt.line);
+                case Stmt.PRINT -> expression(((Stmt.Print) stmt).expression, stmt.line);
+                case Stmt.VAR -> expression(((Stmt.Var) stmt).initializer, stmt.line);
+                case Stmt.FUN -> function(((Stmt.Fun) stmt).name.lexeme, stmt.line,
+                        ((Stmt.Fun) stmt).body);
+                case Stmt.RETURN -> expression(((Stmt.Return) stmt).expression, stmt.line);
+                case Stmt.CLASS -> {
+                    for (Stmt.Fun method : ((Stmt.Class) stmt).methods) {
+                        function(method.name.lexeme, method.name.line, method.body);
+                    }
+                }
+                default -> throw new IllegalStateException("Unknown statement kind " + stmt.kind);
+            }
+        }
+
+        // Expressions only matter for the functions written inside them.
+        private void expression(Expr expr, int line) {
+            if (expr == null) return;
+            switch (expr.kind) {
+                case Expr.ASSIGN -> expression(((Expr.Assign) expr).expression, line);
+                case Expr.BINARY -> {
+                    expression(((Expr.Binary) expr).left, line);
+                    expression(((Expr.Binary) expr).right, line);
+                }
+                case Expr.GROUPING -> expression(((Expr.Grouping) expr).expression, line);
+                case Expr.UNARY -> expression(((Expr.Unary) expr).right, line);
+                case Expr.CALL -> {
+                    expression(((Expr.Call) expr).callee, line);
+                    for (Expr argument : ((Expr.Call) expr).arguments) {
+                        expression(argument, line);
+                    }
+                }
+                case Expr.INLINE_FUN -> function("fun@".concat(Integer.toString(line)), line,
+                        ((Expr.InlineFun) expr).body);
+                default -> {
+                }
+            }
+        }
+
+        private void function(String name, int line, FunBody body) {
+            List<Stmt> statements;
+            try {
+                statements = body.statements(reporter);
+            } catch (RuntimeError error) {
+                return;
+            }
+            block(statements, -1);
+            source.functionNames.add(name);
+            source.functions.add(new int[] {line,
+                    statements.isEmpty() ? -1 : probes.getOrDefault(statements.get(0), -1)});
+        }
+    }
+
+    private static boolean mayReturn(Stmt stmt) {
+        return switch (stmt.kind) {
+            case Stmt.RETURN -> true;
+            case Stmt.IF -> mayReturn(((Stmt.If) stmt).ifBranch)
+                    || ((Stmt.If) stmt).elseBranch != null && mayReturn(((Stmt.If) stmt).elseBranch);
+            case Stmt.WHILE -> mayReturn(((Stmt.While) stmt).whileStmt);
+            case Stmt.BLOCK -> {
+                for (Stmt inner : ((Stmt.Block) stmt).statements) {
+                    if (mayReturn(inner)) yield true;
+                }
+                yield false;
+            }
+            default -> false;
+        };
+    }
+
+    // Writes the counts so far as an LCOV tracefile.
+    synchronized void write(Path file, PrintStream report) {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Source> entry : sources.entrySet()) {
+                write(out, entry.getKey(), entry.getValue());
+            }
+        } catch (IOException e) {
+            report.println("Could not write coverage to " + file + ": " + e.getMessage());
+        }
+    }
+
+    // Builds records with a StringBuilder rather than string concatenation,
+    // whose bootstrapping would add to the time the JVM takes to exit.
+    private void write(Writer out, String name, Source source) throws IOException {
+        StringBuilder text = new StringBuilder("TN:\nSF:").append(name).append('\n');
+
+        int hit = 0;
+        for (int i = 0; i < source.functions.size(); i++) {
+            text.append("FN:").append(source.functions.get(i)[0]).append(',')
+                    .append(source.functionNames.get(i)).append('\n');
+        }
+        for (int i = 0; i < source.functions.size(); i++) {
+            long count = count(source.functions.get(i)[1]);
+            if (count > 0) hit++;
+            text.append("FNDA:").append(count).append(',')
+                    .append(source.functionNames.get(i)).append('\n');
+        }
+        text.append("FNF:").append(source.functions.size()).append("\nFNH:").append(hit)
+                .append('\n');
+
+        int found = 0;
+        hit = 0;
+        for (int i = 0; i < source.branches.size(); i++) {
+            int[] branch = source.branches.get(i);
+            long reached = count(branch[1]);
+            long taken = count(branch[2]);
+            long other;
+            if (source.loops.get(i)) {
+                // A loop is left once each time it is reached.
+                other = reached;
+            } else if (branch[3] >= 0) {
+                other = count(branch[3]);
+            } else {
+                other = Math.max(0, reached - taken);
+            }
+            for (int side = 0; side < 2; side++) {
+                long count = side == 0 ? taken : other;
+                found++;
+                if (count > 0) hit++;
+                text.append("BRDA:").append(branch[0]).append(',').append(i).append(',')
+                        .append(side).append(',');
+                if (reached == 0) {
+                    text.append('-');
+                } else {
+                    text.append(count);
+                }
+                text.append('\n');
+            }
+        }
+        text.append("BRF:").append(found).append("\nBRH:").append(hit).append('\n');
+
+        Map<Integer, Long> lines = new TreeMap<>();
+        for (int[] line : source.lines) {
+            long count = count(line[1]);
+            Long before = lines.get(line[0]);
+            if (before == null || before < count) lines.put(line[0], count);
+        }
+        hit = 0;
+        for (Map.Entry<Integer, Long> line : lines.entrySet()) {
+            if (line.getValue() > 0) hit++;
+            text.append("DA:").append(line.getKey()).append(',').append(line.getValue())
+                    .append('\n');
+        }
+        text.append("LF:").append(lines.size()).append("\nLH:").append(hit)
+                .append("\nend_of_record\n");
+        out.write(text.toString());
+    }
+}
@@ -0,0 +1,198 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/*
+ * A line debugger on the console (--debug), built as an Instrument. It
+ * stops before the first statement and then takes commands:
+ *
+ *   b <line>   break whenever execution reaches line; b alone lists them
+ *   d <line>   delete the breakpoint at line
+ *   s          step to the next line, into calls
+ *   n          step to the next line, over calls
+ *   o          run until the current function returns
+ *   c          continue to the next breakpoint
+ *   p <name>   print a variable as the current scope sees it
+ *   v          print the variables of every scope but the globals
+ *   bt         print the calls that lead here
+ *   q          quit
+ *
+ * It also stops where a runtime error happens, before it unwinds, so the
+ * variables can still be looked at. At the end of input it lets the
+ * program run on without stopping.
+ */
+final class Debugger implements Instrument {
+
+    private enum Mode { RUN, STEP, NEXT, OUT }
+
+    private final BufferedReader in;
+    private final PrintStream out;
+
+    private final TreeSet<Integer> breakpoints = new TreeSet<>();
+    // Function names and the lines they were called from, outermost first.
+    private final List<String> calls = new ArrayList<>();
+    private Mode mode = Mode.STEP;
+    // Where the last stop was, for s, n and o.
+    private int stoppedLine = -1;
+    private int stoppedDepth = 0;
+    // The line of the previous statement; a breakpoint stops once each
+    // time execution comes to its line.
+    private int lastLine = -1;
+    // Set at the end of input.
+    private boolean detached = false;
+
+    Debugger(BufferedReader in, PrintStream out) {
+        this.in = in;
+        this.out = out;
+        out.println("Lox debugger; h for help.");
+    }
+
+    @Override
+    public void statement(Interpreter interpreter, Stmt stmt) {
+        int line = stmt.line;
+        int depth = calls.size();
+        boolean stop = switch (mode) {
+            case RUN -> false;
+            case STEP -> line != stoppedLine || depth != stoppedDepth;
+            case NEXT -> depth < stoppedDepth || depth == stoppedDepth && line != stoppedLine;
+            case OUT -> depth < stoppedDepth;
+        };
+        if (!stop && line != lastLine && breakpoints.contains(line)) stop = true;
+        lastLine = line;
+        if (stop) {
+            out.println("Stopped at line " + line + ": " + Trace.kind(stmt));
+            prompt(interpreter, line);
+        }
+    }
+
+    @Override
+    public void enterCall(Interpreter interpreter, Expr.Call call, LoxCallable function,
+                          List<Object> arguments) {
+        calls.add(function.name() + " called from line " + call.paren.line);
+    }
+
+    @Override
+    public void exitCall(Interpreter interpreter, Expr.Call call, LoxCallable function,
+                         Object result, boolean threw) {
+        calls.remove(calls.size() - 1);
+    }
+
+    @Override
+    public void runtimeError(Interpreter interpreter, RuntimeError error) {
+        if (detached) return;
+        out.println("Runtime error at line " + error.token.line + ": " + error.getMessage());
+        prompt(interpreter, error.token.line);
+    }
+
+    private void prompt(Interpreter interpreter, int line) {
+        stoppedLine = line;
+        stoppedDepth = calls.size();
+        for (;;) {
+            out.print("(lox) ");
+            out.flush();
+            String command;
+            try {
+                command = in.readLine();
+            } catch (IOException e) {
+                command = null;
+            }
+            if (command == null) {
+                // Nobody is left to give commands.
+                out.println();
+                breakpoints.clear();
+                mode = Mode.RUN;
+                detached = true;
+                return;
+            }
+            String[] words = command.trim().split("\\s+", 2);
+            String argument = words.length > 1 ? words[1] : null;
+            switch (words[0]) {
+                case "s" -> {
+                    mode = Mode.STEP;
+                    return;
+                }
+                case "n" -> {
+                    mode = Mode.NEXT;
+                    return;
+                }
+                case "o" -> {
+                    mode = Mode.OUT;
+                    return;
+                }
+                case "c" -> {
+                    mode = Mode.RUN;
+                    return;
+                }
+                case "b" -> {
+                    if (argument == null) {
+                        out.println("Breakpoints: " + breakpoints);
+                    } else if (lineNumber(argument) > 0) {
+                        breakpoints.add(lineNumber(argument));
+                    }
+                }
+                case "d" -> {
+                    if (argument != null && lineNumber(argument) > 0) {
+                        breakpoints.remove(lineNumber(argument));
+                    }
+                }
+                case "p" -> {
+                    if (argument == null) {
+                        out.println("Usage: p <name>");
+                    } else {
+                        print(interpreter, argument, line);
+                    }
+                }
+                case "v" -> variables(interpreter);
+                case "bt" -> {
+                    for (int i = calls.size() - 1; i >= 0; i--) {
+                        out.println("  " + calls.get(i));
+                    }
+                    out.println("  <script>");
+                }
+                case "q" -> System.exit(0);
+                case "h", "" -> out.println("b [line]  d line  s  n  o  c  p name  v  bt  q");
+                default -> out.println("Unknown command '" + words[0] + "'; h for help.");
+            }
+        }
+    }
+
+    private int lineNumber(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            out.println("Not a line number: " + text);
+            return -1;
+        }
+    }
+
+    private void print(Interpreter interpreter, String name, int line) {
+        Token token = new Token(TokenType.IDENTIFIER, name, null, line);
+        try {
+            Object value = interpreter.environment.get(token, interpreter.overlay);
+            out.println(name + " = " + interpreter.stringify(value));
+        } catch (RuntimeError error) {
+            out.println(error.getMessage());
+        }
+    }
+
+    private void variables(Interpreter interpreter) {
+        int scope = 0;
+        for (Environment environment = interpreter.environment;
+             environment != null && environment.enclosing() != null;
+             environment = environment.enclosing()) {
+            StringBuilder text = new StringBuilder("  scope " + scope++ + ":");
+            for (Map.Entry<String, Object> entry : environment.values().entrySet()) {
+                text.append(' ').append(entry.getKey()).append(" = ")
+                        .append(interpreter.stringify(entry.getValue())).append(';');
+            }
+            out.println(text);
+        }
+        if (scope == 0) out.println("  (globals only)");
+    }
+}
@@ -0,0 +1,288 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * What resolved statements do to global variables: which they read, which
+ * they write, and whether they may do anything the analysis cannot see.
+ * Locals are private to one execution and are ignored.
+ *
+ * Calls are followed through top-level functions: a call of a global that
+ * a single fun declaration defines, and that nothing else assigns, has the
+ * effects of that function's body. Anything else makes the caller
+ * unknown: calling any other value, a native not known to be harmless, a
+ * harmless native's name that the globals bind to something else (a
+ * prelude, a snapshot or an earlier REPL line may have redefined it), or
+ * a function whose lazy body has not been parsed yet, since parsing it
+ * here would undo what --lazy saves. Printing is not an effect here; the
+ * Scheduler keeps output in program order itself.
+ */
+class Effects {
+
+    // Natives with no effects on globals and no threads of their own.
+    private static final Set<String> PURE_NATIVES = Set.of("time", "clock", "len", "get");
+
+    static final class Summary {
+        final Set<String> reads = new HashSet<>();
+        final Set<String> writes = new HashSet<>();
+        final Set<String> calls = new HashSet<>();
+        // Locals assigned anywhere, by name.
+        final Set<String> localWrites = new HashSet<>();
+        boolean unknown = false;
+        // Calls a function or loops; worth running on another thread.
+        boolean heavy = false;
+
+        boolean dependsOn(Set<String> written) {
+            for (String name : reads) {
+                if (written.contains(name)) return true;
+            }
+            return false;
+        }
+
+        private boolean absorb(Summary other) {
+            boolean changed = reads.addAll(other.reads) | writes.addAll(other.writes);
+            if (other.unknown && !unknown) {
+                unknown = true;
+                changed = true;
+            }
+            return changed;
+        }
+    }
+
+    private final Map<String, Summary> functions = new HashMap<>();
+    private final Set<String> assigned = new HashSet<>();
+    // The PURE_NATIVES that globals still bind to the built-in native.
+    private final Set<String> natives = new HashSet<>();
+
+    // Analyses the functions of a program that is to run against globals,
+    // as overlay sees them, so its statements can be summarized with of().
+    Effects(List<Stmt> program, Environment globals, Overlay overlay) {
+        for (String name : PURE_NATIVES) {
+            Object value = globals.lookup(name, overlay);
+            if (value instanceof Native && ((Native) value).name().equals(name)) {
+                natives.add(name);
+            }
+        }
+
+        Map<String, Stmt.Fun> declarations = new HashMap<>();
+        // How many statements and function bodies write each global.
+        Map<String, Integer> writers = new HashMap<>();
+        for (Stmt stmt : program) {
+            Summary summary = new Summary();
+            new Collector(summary, false).statement(stmt);
+            for (String name : summary.writes) writers.merge(name, 1, Integer::sum);
+            if (stmt instanceof Stmt.Fun) {
+                String name = ((Stmt.Fun) stmt).name.lexeme;
+                declarations.putIfAbsent(name, (Stmt.Fun) stmt);
+            }
+        }
+        for (Stmt.Fun declaration : declarations.values()) {
+            List<Stmt> body = declaration.body.built();
+            if (body == null) continue;
+            Summary summary = new Summary();
+            new Collector(summary, true).statements(body);
+            for (String name : summary.writes) writers.merge(name, 1, Integer::sum);
+            functions.put(declaration.name.lexeme, summary);
+        }
+        assigned.addAll(writers.keySet());
+        // A function name written anywhere but its one declaration may hold
+        // anything when it is called.
+        for (String name : declarations.keySet()) {
+            if (writers.get(name) > 1) functions.remove(name);
+        }
+
+        for (boolean changed = true; changed; ) {
+            changed = false;
+            for (Summary summary : functions.values()) {
+                changed |= expand(summary);
+            }
+        }
+    }
+
+    Summary of(Stmt stmt) {
+        Summary summary = new Summary();
+        new Collector(summary, false).statement(stmt);
+        expand(summary);
+        return summary;
+    }
+
+    Summary of(List<Stmt> statements) {
+        Summary summary = new Summary();
+        new Collector(summary, false).statements(statements);
+        expand(summary);
+        return summary;
+    }
+
+    // Adds the effects of everything the summary calls.
+    private boolean expand(Summary summary) {
+        boolean changed = false;
+        for (String callee : summary.calls) {
+            Summary function = functions.get(callee);
+            if (function != null) {
+                changed |= summary.absorb(function);
+            } else if (!natives.contains(callee) || assigned.contains(callee)) {
+                if (!summary.unknown) changed = true;
+                summary.unknown = true;
+            }
+        }
+        return changed;
+    }
+
+    private static final class Collector implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final Summary summary;
+        // Inside a block or function body, where declarations are locals.
+        private int depth;
+
+        Collector(Summary summary, boolean inFunction) {
+            this.summary = summary;
+            this.depth = inFunction ? 1 : 0;
+        }
+
+        void statements(List<Stmt> statements) {
+            for (Stmt stmt : statements) {
+                statement(stmt);
+            }
+        }
+
+        void statement(Stmt stmt) {
+            stmt.accept(this);
+        }
+
+        private void expression(Expr expr) {
+            if (expr != null) expr.accept(this);
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            expression(expr.expression);
+            if (expr.depth == -1) {
+                // Assigning needs the global to be defined already, so it
+                // cannot run beside the statement that defines it.
+                summary.reads.add(expr.name.lexeme);
+                summary.writes.add(expr.name.lexeme);
+            } else {
+                summary.localWrites.add(expr.name.lexeme);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            expression(expr.left);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            expression(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            if (expr.callee instanceof Expr.Variable && ((Expr.Variable) expr.callee).depth == -1) {
+                String name = ((Expr.Variable) expr.callee).name.lexeme;
+                summary.reads.add(name);
+                summary.calls.add(name);
+                summary.heavy = true;
+            } else {
+                expression(expr.callee);
+                summary.unknown = true;
+            }
+            for (Expr argument : expr.arguments) {
+                expression(argument);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            if (expr.depth == -1) summary.reads.add(expr.name.lexeme);
+            return null;
+        }
+
+        // Creating a closure runs none of its body; calling it later is
+        // an unknown call.
+        @Override
+        public Void visitInlineFunExpr(Expr.InlineFun expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            expression(stmt.condition);
+            statement(stmt.ifBranch);
+            if (stmt.elseBranch != null) statement(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            summary.heavy = true;
+            expression(stmt.condition);
+            statement(stmt.whileStmt);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            depth++;
+            statements(stmt.statements);
+            depth--;
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            expression(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            expression(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            expression(stmt.initializer);
+            if (depth == 0) summary.writes.add(stmt.name.lexeme);
+            return null;
+        }
+
+        @Override
+        public Void visitFunStmt(Stmt.Fun stmt) {
+            if (depth == 0) summary.writes.add(stmt.name.lexeme);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            expression(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            if (depth == 0) summary.writes.add(stmt.name.lexeme);
+            return null;
+        }
+    }
+}
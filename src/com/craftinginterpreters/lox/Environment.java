@@ -1,13 +1,23 @@
 package com.craftinginterpreters.lox;
 
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
 
-public class Environment {
+public class Environment implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private final Map<String, Object> values = new HashMap<>();
 
     private final Environment enclosing;
 
+    // Set by freeze(): the environment is shared between forked
+    // interpreters and its values never change again; writes go to the
+    // writer's Overlay instead.
+    private transient boolean frozen = false;
+
     Environment() {
         this.enclosing = null;
     }
@@ -17,8 +27,13 @@ public class Environment {
     }
 
     Object get(Token name) {
-        if(values.containsKey(name.lexeme)) {
-            Object val = values.get(name.lexeme);
+        return get(name, null);
+    }
+
+    Object get(Token name, Overlay overlay) {
+        Map<String, Object> holder = holder(name.lexeme, overlay);
+        if(holder != null) {
+            Object val = holder.get(name.lexeme);
             if(val == Constants.UNINITIALIZED){
                 throw new RuntimeError(name,
                         "Uninitialized variable '" + name.lexeme + "'.");
@@ -26,33 +41,121 @@ public class Environment {
             return val;
         }
         if(this.enclosing != null) {
-            return enclosing.get(name);
+            return enclosing.get(name, overlay);
         }
         throw new RuntimeError(name,
                 "Undefined variable '" + name.lexeme + "'.");
     }
 
     void define(String name, Object value) {
+        define(name, value, null);
+    }
+
+    void define(String name, Object value, Overlay overlay) {
+        if (frozen) {
+            writable(overlay).write(this, name, value);
+            return;
+        }
         values.put(name, value);
     }
 
     void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
+        assign(name, value, null);
+    }
+
+    void assign(Token name, Object value, Overlay overlay) {
+        Map<String, Object> holder = holder(name.lexeme, overlay);
+        if (holder != null) {
+            if (frozen) {
+                writable(overlay).write(this, name.lexeme, value);
+            } else {
+                holder.put(name.lexeme, value);
+            }
             return;
         }
         if(this.enclosing != null) {
-            this.enclosing.assign(name, value);
+            this.enclosing.assign(name, value, overlay);
             return;
         }
         throw new RuntimeError(name,
                 "Undefined variable '" + name.lexeme + "'.");
     }
 
+    // The value of name here as overlay sees it, or null when name is not
+    // defined in this environment.
+    Object lookup(String name, Overlay overlay) {
+        Map<String, Object> holder = holder(name, overlay);
+        return holder == null ? null : holder.get(name);
+    }
+
+    Map<String, Object> values() {
+        return values;
+    }
+
+    Environment enclosing() {
+        return enclosing;
+    }
+
     public Object getAt(Integer distance, Token name) {
         return ancestor(distance).values.get(name.lexeme);
     }
 
+    Object getAt(int distance, Token name, Overlay overlay) {
+        Map<String, Object> holder = ancestor(distance).holder(name.lexeme, overlay);
+        return holder == null ? null : holder.get(name.lexeme);
+    }
+
+    // The map that holds name in this environment, as seen through
+    // overlay; null when it is not defined here.
+    private Map<String, Object> holder(String name, Overlay overlay) {
+        if (frozen && overlay != null) {
+            Map<String, Object> written = overlay.holder(this, name);
+            if (written != null) return written;
+        }
+        return values.containsKey(name) ? values : null;
+    }
+
+    private Overlay writable(Overlay overlay) {
+        if (overlay == null) {
+            throw new IllegalStateException("Environment is frozen.");
+        }
+        return overlay;
+    }
+
+    // This environment as overlay sees it: a copy with the overlay's writes
+    // applied, or this environment itself when there are none.
+    Environment withWrites(Overlay overlay) {
+        if (!frozen || overlay == null) return this;
+        Map<String, Object> written = overlay.writes(this);
+        if (written.isEmpty()) return this;
+        Environment copy = new Environment(enclosing);
+        copy.values.putAll(values);
+        copy.values.putAll(written);
+        return copy;
+    }
+
+    boolean isFrozen() {
+        return frozen;
+    }
+
+    // Freezes this environment and everything reachable from it: enclosing
+    // environments and the closures of functions stored in them. Stops at
+    // environments that are already frozen, so it walks only what was
+    // created since the last freeze, but that is all of it.
+    void freeze() {
+        Deque<Environment> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            Environment environment = pending.pop();
+            if (environment.frozen) continue;
+            environment.frozen = true;
+            if (environment.enclosing != null) pending.push(environment.enclosing);
+            for (Object value : environment.values.values()) {
+                if (value instanceof LoxFun) pending.push(((LoxFun) value).closure());
+            }
+        }
+    }
+
     private Environment ancestor(Integer distance) {
         Environment environment = this;
         for(var i=0; i < distance;i++) {
@@ -0,0 +1,49 @@
+package com.craftinginterpreters.lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/*
+ * Collects the errors of one compilation or one context, so independent
+ * scripts never share error state.
+ */
+class ErrorReporter {
+
+    private final PrintStream err;
+
+    boolean hadError = false;
+    boolean hadRuntimeError = false;
+
+    ErrorReporter(PrintStream err) {
+        this.err = err;
+    }
+
+    static ErrorReporter discarding() {
+        return new ErrorReporter(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            report(token.line, " at end", message);
+        } else {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    void runtimeError(RuntimeError error) {
+        LoxEvents.runtimeError(error);
+        Metrics.ERRORS.increment(error.getMessage());
+        err.println(error.token == null ? error.getMessage() :
+                error.getMessage() + "\n[line " + error.token.line + "]");
+        hadRuntimeError = true;
+    }
+
+    private void report(int line, String where, String message) {
+        err.println("[line " + line + "] Error" + where + ": " + message);
+        hadError = true;
+    }
+}
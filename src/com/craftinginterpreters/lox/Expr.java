@@ -1,8 +1,11 @@
 package com.craftinginterpreters.lox;
 
+import java.io.Serializable;
 import java.util.List;
 
-abstract class Expr {
+abstract sealed class Expr implements Serializable {
+  private static final long serialVersionUID = 1L;
+
   interface Visitor<R> {
     R visitAssignExpr(Assign expr);
     R visitBinaryExpr(Binary expr);
@@ -13,8 +16,27 @@ abstract class Expr {
     R visitVariableExpr(Variable expr);
     R visitInlineFunExpr(InlineFun expr);
   }
-  static class Assign extends Expr {
+
+  static final int ASSIGN = 0;
+  static final int BINARY = 1;
+  static final int GROUPING = 2;
+  static final int LITERAL = 3;
+  static final int UNARY = 4;
+  static final int CALL = 5;
+  static final int VARIABLE = 6;
+  static final int INLINE_FUN = 7;
+
+  Expr(int kind) {
+    this.kind = kind;
+  }
+
+  final int kind;
+  int depth = -1;
+  static final class Assign extends Expr {
+    private static final long serialVersionUID = 1L;
+
     Assign(Token name, Expr expression) {
+      super(ASSIGN);
       this.name = name;
       this.expression = expression;
     }
@@ -27,8 +49,11 @@ abstract class Expr {
     final Token name;
     final Expr expression;
   }
-  static class Binary extends Expr {
+  static final class Binary extends Expr {
+    private static final long serialVersionUID = 1L;
+
     Binary(Expr left, Token operator, Expr right) {
+      super(BINARY);
       this.left = left;
       this.operator = operator;
       this.right = right;
@@ -43,8 +68,11 @@ abstract class Expr {
     final Token operator;
     final Expr right;
   }
-  static class Grouping extends Expr {
+  static final class Grouping extends Expr {
+    private static final long serialVersionUID = 1L;
+
     Grouping(Expr expression) {
+      super(GROUPING);
       this.expression = expression;
     }
 
@@ -55,8 +83,11 @@ abstract class Expr {
 
     final Expr expression;
   }
-  static class Literal extends Expr {
+  static final class Literal extends Expr {
+    private static final long serialVersionUID = 1L;
+
     Literal(Object value) {
+      super(LITERAL);
       this.value = value;
     }
 
@@ -67,8 +98,11 @@ abstract class Expr {
 
     final Object value;
   }
-  static class Unary extends Expr {
+  static final class Unary extends Expr {
+    private static final long serialVersionUID = 1L;
+
     Unary(Token operator, Expr right) {
+      super(UNARY);
       this.operator = operator;
       this.right = right;
     }
@@ -81,8 +115,11 @@ abstract class Expr {
     final Token operator;
     final Expr right;
   }
-  static class Call extends Expr {
+  static final class Call extends Expr {
+    private static final long serialVersionUID = 1L;
+
     Call(Expr callee, Token paren, List<Expr> arguments) {
+      super(CALL);
       this.callee = callee;
       this.paren = paren;
       this.arguments = arguments;
@@ -97,8 +134,11 @@ abstract class Expr {
     final Token paren;
     final List<Expr> arguments;
   }
-  static class Variable extends Expr {
+  static final class Variable extends Expr {
+    private static final long serialVersionUID = 1L;
+
     Variable(Token name) {
+      super(VARIABLE);
       this.name = name;
     }
 
@@ -109,10 +149,13 @@ abstract class Expr {
 
     final Token name;
   }
-  static class InlineFun extends Expr {
-    InlineFun(List<Token> parameters, List<Stmt> statements) {
+  static final class InlineFun extends Expr {
+    private static final long serialVersionUID = 1L;
+
+    InlineFun(List<Token> parameters, FunBody body) {
+      super(INLINE_FUN);
       this.parameters = parameters;
-      this.statements = statements;
+      this.body = body;
     }
 
     @Override
@@ -121,7 +164,7 @@ abstract class Expr {
     }
 
     final List<Token> parameters;
-    final List<Stmt> statements;
+    final FunBody body;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,100 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * A unit of lowered code: the top-level program or one function body.
+ *
+ * Nodes are records in a single int[]: an opcode followed by operands.
+ * Operands are child node offsets, slot numbers, counts or indexes into the
+ * constant pool (literal values, names, tokens for error reporting and
+ * function prototypes). Children are written before their parents, and
+ * the unit starts executing at the SEQ record at root.
+ */
+class FlatCode {
+
+    // Expressions.
+    static final int LITERAL = 0;       // constant
+    static final int GET_LOCAL = 1;     // depth, slot
+    static final int GET_GLOBAL = 2;    // name token
+    static final int ASSIGN = 3;        // value, name token
+    static final int ADD = 4;           // left, right, operator token
+    static final int SUBTRACT = 5;
+    static final int MULTIPLY = 6;
+    static final int DIVIDE = 7;
+    static final int GREATER = 8;
+    static final int GREATER_EQUAL = 9;
+    static final int LESS = 10;
+    static final int LESS_EQUAL = 11;
+    static final int EQUAL = 12;
+    static final int NOT_EQUAL = 13;
+    static final int AND = 14;
+    static final int OR = 15;
+    static final int NEGATE = 16;       // operand, operator token
+    static final int NOT = 17;          // operand, operator token
+    static final int CALL = 18;         // callee, paren token, count, arguments...
+    static final int FUNCTION = 19;     // prototype
+
+    // Statements.
+    static final int EXPRESSION = 20;   // expression
+    static final int PRINT = 21;        // expression
+    static final int DEFINE_LOCAL = 22; // slot, initializer or -1
+    static final int DEFINE_GLOBAL = 23;// name, initializer or -1
+    static final int RETURN = 24;       // value or -1
+    static final int IF = 25;           // condition, then, else or -1
+    static final int WHILE = 26;        // condition, body, keyword
+    static final int BLOCK = 27;        // scope, count, statements...
+    static final int SEQ = 28;          // count, statements...
+    static final int NOP = 29;
+
+    final int[] code;
+    final Object[] constants;
+    final int root;
+
+    FlatCode(int[] code, Object[] constants, int root) {
+        this.code = code;
+        this.constants = constants;
+        this.root = root;
+    }
+
+    // The local variables of a block or function, in slot order. Function
+    // parameters take the first slots.
+    static class Scope {
+        final List<String> names = new ArrayList<>();
+
+        int declare(String name) {
+            names.add(name);
+            return names.size() - 1;
+        }
+
+        int slot(String name) {
+            return names.indexOf(name);
+        }
+
+        int size() {
+            return names.size();
+        }
+    }
+
+    // A function declaration. Its body is lowered into its own unit the
+    // first time the function is called.
+    static class Prototype {
+        final String name;
+        final int arity;
+        final FunBody body;
+        final List<Scope> enclosing;
+        final Scope scope = new Scope();
+        FlatCode code;
+
+        Prototype(String name, List<Token> parameters, FunBody body, List<Scope> enclosing) {
+            this.name = name;
+            this.arity = parameters.size();
+            this.body = body;
+            this.enclosing = enclosing;
+            for (Token param : parameters) {
+                scope.declare(param.lexeme);
+            }
+        }
+    }
+}
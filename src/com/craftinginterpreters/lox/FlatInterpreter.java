@@ -0,0 +1,373 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.craftinginterpreters.lox.FlatCode.*;
+
+/*
+ * Evaluates FlatCode. Behaves like the Interpreter it is created for,
+ * whose globals, natives and output it shares: local variables live in
+ * slots of a Frame instead of an Environment, and a return unwinds by
+ * result flag instead of by exception.
+ */
+class FlatInterpreter {
+
+    // Marks a slot whose declaration has not run yet.
+    private static final Object ABSENT = new Object();
+
+    private final Interpreter host;
+    private Object returnValue;
+
+    FlatInterpreter(Interpreter host) {
+        this.host = host;
+    }
+
+    static class Frame {
+        final Object[] slots;
+        final Scope scope;
+        final Frame enclosing;
+
+        Frame(Scope scope, Frame enclosing) {
+            this.slots = new Object[scope.size()];
+            Arrays.fill(slots, ABSENT);
+            this.scope = scope;
+            this.enclosing = enclosing;
+        }
+    }
+
+    void interpret(List<Stmt> statements) {
+        FlatCode program = Flattener.program(statements);
+        host.counting = LoxEvents.counting;
+        try {
+            execute(program, program.root, null);
+        } catch (RuntimeError error) {
+            host.reporter.runtimeError(error);
+        }
+    }
+
+    // Returns true when a return statement ran.
+    private boolean execute(FlatCode unit, int node, Frame frame) {
+        int[] code = unit.code;
+        if (host.counting) count(code[node]);
+        switch (code[node]) {
+            case EXPRESSION:
+                evaluate(unit, code[node + 1], frame);
+                return false;
+            case PRINT:
+                host.out.println(host.stringify(evaluate(unit, code[node + 1], frame)));
+                return false;
+            case DEFINE_LOCAL:
+                frame.slots[code[node + 1]] = initializer(unit, code[node + 2], frame);
+                return false;
+            case DEFINE_GLOBAL:
+                host.globals.define((String) unit.constants[code[node + 1]],
+                        initializer(unit, code[node + 2], frame), host.overlay);
+                return false;
+            case RETURN: {
+                int value = code[node + 1];
+                returnValue = value == -1 ? null : evaluate(unit, value, frame);
+                return true;
+            }
+            case IF:
+                if (isTruthy(evaluate(unit, code[node + 1], frame))) {
+                    return execute(unit, code[node + 2], frame);
+                }
+                if (code[node + 3] != -1) {
+                    return execute(unit, code[node + 3], frame);
+                }
+                return false;
+            case WHILE:
+                while (isTruthy(evaluate(unit, code[node + 1], frame))) {
+                    host.tick((Token) unit.constants[code[node + 3]]);
+                    if (host.frames != null) {
+                        host.frames.line(((Token) unit.constants[code[node + 3]]).line);
+                    }
+                    if (execute(unit, code[node + 2], frame)) return true;
+                }
+                return false;
+            case BLOCK:
+                host.allocate(Quota.ENVIRONMENTS, Quota.FRAME_BYTES +
+                        (long) Quota.REFERENCE_BYTES * ((Scope) unit.constants[code[node + 1]]).size());
+                if (host.counting) LoxEvents.scope(LoxEvents.BLOCK_SCOPE);
+                return sequence(unit, node + 3, code[node + 2],
+                        new Frame((Scope) unit.constants[code[node + 1]], frame));
+            case SEQ:
+                return sequence(unit, node + 2, code[node + 1], frame);
+            case NOP:
+                return false;
+            default:
+                throw new IllegalStateException("Not a statement: " + code[node]);
+        }
+    }
+
+    // Counts a statement for LoxEvents by the Stmt kind it was lowered
+    // from; functions are counted as the variables they define.
+    private static void count(int instruction) {
+        switch (instruction) {
+            case EXPRESSION: LoxEvents.statement(Stmt.EXPRESSION); break;
+            case PRINT: LoxEvents.statement(Stmt.PRINT); break;
+            case DEFINE_LOCAL:
+            case DEFINE_GLOBAL: LoxEvents.statement(Stmt.VAR); break;
+            case RETURN: LoxEvents.statement(Stmt.RETURN); break;
+            case IF: LoxEvents.statement(Stmt.IF); break;
+            case WHILE: LoxEvents.statement(Stmt.WHILE); break;
+            case BLOCK: LoxEvents.statement(Stmt.BLOCK); break;
+            default: break;
+        }
+    }
+
+    private boolean sequence(FlatCode unit, int first, int count, Frame frame) {
+        int[] code = unit.code;
+        for (int i = 0; i < count; i++) {
+            if (execute(unit, code[first + i], frame)) return true;
+        }
+        return false;
+    }
+
+    private Object initializer(FlatCode unit, int node, Frame frame) {
+        if (node == -1) return Constants.UNINITIALIZED;
+        return evaluate(unit, node, frame);
+    }
+
+    private Object evaluate(FlatCode unit, int node, Frame frame) {
+        int[] code = unit.code;
+        switch (code[node]) {
+            case LITERAL:
+                return unit.constants[code[node + 1]];
+            case GET_LOCAL: {
+                Frame target = frame;
+                for (int depth = code[node + 1]; depth > 0; depth--) {
+                    target = target.enclosing;
+                }
+                Object value = target.slots[code[node + 2]];
+                return value == ABSENT ? null : value;
+            }
+            case GET_GLOBAL:
+                return host.globals.get((Token) unit.constants[code[node + 1]], host.overlay);
+            case ASSIGN: {
+                Object value = evaluate(unit, code[node + 1], frame);
+                assign(frame, (Token) unit.constants[code[node + 2]], value);
+                return value;
+            }
+            case NEGATE: {
+                Object right = evaluate(unit, code[node + 1], frame);
+                checkNumberOperand(unit, code[node + 2], right);
+                return -(double) right;
+            }
+            case NOT:
+                return !isTruthy(evaluate(unit, code[node + 1], frame));
+            case CALL:
+                return call(unit, node, frame);
+            case FUNCTION:
+                host.allocate(Quota.CLOSURES, Quota.CLOSURE_BYTES);
+                return new Closure((Prototype) unit.constants[code[node + 1]], frame);
+            default:
+                return binary(unit, node, frame);
+        }
+    }
+
+    private Object binary(FlatCode unit, int node, Frame frame) {
+        int[] code = unit.code;
+        Object left = evaluate(unit, code[node + 1], frame);
+        Object right = evaluate(unit, code[node + 2], frame);
+        int operator = code[node + 3];
+        switch (code[node]) {
+            case ADD:
+                if (left instanceof Double && right instanceof Double) {
+                    return (double) left + (double) right;
+                }
+                if (left instanceof String && right instanceof String) {
+                    host.allocate(Quota.STRINGS, Quota.STRING_BYTES +
+                            (long) ((String) left).length() + ((String) right).length(),
+                            (Token) unit.constants[operator]);
+                    return (String) left + (String) right;
+                }
+                throw new RuntimeError((Token) unit.constants[operator],
+                        "Operands must be numbers / strings");
+            case SUBTRACT:
+                checkNumberOperands(unit, operator, left, right);
+                return (double) left - (double) right;
+            case MULTIPLY:
+                checkNumberOperands(unit, operator, left, right);
+                return (double) left * (double) right;
+            case DIVIDE:
+                checkNumberOperands(unit, operator, left, right);
+                return (double) left / (double) right;
+            case GREATER:
+                checkNumberOperands(unit, operator, left, right);
+                return (double) left > (double) right;
+            case GREATER_EQUAL:
+                checkNumberOperands(unit, operator, left, right);
+                return (double) left >= (double) right;
+            case LESS:
+                checkNumberOperands(unit, operator, left, right);
+                return (double) left < (double) right;
+            case LESS_EQUAL:
+                checkNumberOperands(unit, operator, left, right);
+                return (double) left <= (double) right;
+            case EQUAL:
+                return isEqual(left, right);
+            case NOT_EQUAL:
+                return !isEqual(left, right);
+            case AND:
+                return isTruthy(left) ? right : left;
+            case OR:
+                return isTruthy(left) ? left : right;
+            default:
+                throw new IllegalStateException("Not an expression: " + code[node]);
+        }
+    }
+
+    private Object call(FlatCode unit, int node, Frame frame) {
+        int[] code = unit.code;
+        host.tick((Token) unit.constants[code[node + 2]]);
+        LoxCallable function = (LoxCallable) evaluate(unit, code[node + 1], frame);
+        int count = code[node + 3];
+        if (count != function.arity()) {
+            throw new RuntimeError((Token) unit.constants[code[node + 2]], "Expected " +
+                    function.arity() + " arguments but got " +
+                    count + ".");
+        }
+        int first = node + 4;
+        host.counting = LoxEvents.counting;
+        Object event = LoxEvents.begin();
+        if (host.frames != null) {
+            host.frames.enter(function.name(), ((Token) unit.constants[code[node + 2]]).line);
+        }
+        try {
+            return call(unit, node, frame, function, count, first);
+        } catch (StackOverflowError error) {
+            throw new RuntimeError((Token) unit.constants[code[node + 2]], "Stack overflow.");
+        } finally {
+            if (host.frames != null) host.frames.exit();
+            if (event != null) LoxEvents.call(event, function);
+        }
+    }
+
+    private Object call(FlatCode unit, int node, Frame frame, LoxCallable function,
+                        int count, int first) {
+        int[] code = unit.code;
+
+        // Once the body is lowered the frame size is known and arguments go
+        // straight into their slots.
+        if (function instanceof Closure && ((Closure) function).prototype.code != null) {
+            Closure closure = (Closure) function;
+            FlatCode body = closure.prototype.code;
+            host.allocate(Quota.ENVIRONMENTS, Quota.FRAME_BYTES +
+                    (long) Quota.REFERENCE_BYTES * closure.prototype.scope.size());
+            if (host.counting) LoxEvents.scope(LoxEvents.FUNCTION_SCOPE);
+            Frame callFrame = new Frame(closure.prototype.scope, closure.frame);
+            for (int i = 0; i < count; i++) {
+                callFrame.slots[i] = evaluate(unit, code[first + i], frame);
+            }
+            return closure.run(body, callFrame);
+        }
+
+        List<Object> arguments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            arguments.add(evaluate(unit, code[first + i], frame));
+        }
+        try {
+            return function.call(host, arguments);
+        } catch (RuntimeError error) {
+            throw error.at((Token) unit.constants[code[node + 2]]);
+        }
+    }
+
+    // Assignment looks the name up at run time, like Environment.assign:
+    // the innermost frame that has already defined it wins.
+    private void assign(Frame frame, Token name, Object value) {
+        for (Frame f = frame; f != null; f = f.enclosing) {
+            List<String> names = f.scope.names;
+            for (int slot = 0; slot < names.size(); slot++) {
+                if (names.get(slot).equals(name.lexeme) && f.slots[slot] != ABSENT) {
+                    f.slots[slot] = value;
+                    return;
+                }
+            }
+        }
+        host.globals.assign(name, value, host.overlay);
+    }
+
+    private boolean isTruthy(Object value) {
+        if (value == null) return false;
+        if (value instanceof Boolean) return (boolean) value;
+        return !"".equals(value);
+    }
+
+    private boolean isEqual(Object a, Object b) {
+        if (a == null && b == null) return true;
+        if (a == null) return false;
+
+        return a.equals(b);
+    }
+
+    private void checkNumberOperand(FlatCode unit, int operator, Object operand) {
+        if (operand instanceof Double) return;
+        throw new RuntimeError((Token) unit.constants[operator], "Operand must be a number.");
+    }
+
+    private void checkNumberOperands(FlatCode unit, int operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw new RuntimeError((Token) unit.constants[operator], "Operands must be numbers.");
+    }
+
+    class Closure implements LoxCallable {
+        final Prototype prototype;
+        final Frame frame;
+
+        Closure(Prototype prototype, Frame frame) {
+            this.prototype = prototype;
+            this.frame = frame;
+        }
+
+        FlatCode body() {
+            FlatCode code = prototype.code;
+            if (code == null) {
+                code = Flattener.function(prototype,
+                        prototype.body.statements(host.reporter));
+                prototype.code = code;
+            }
+            return code;
+        }
+
+        @Override
+        public int arity() {
+            return prototype.arity;
+        }
+
+        @Override
+        public String name() {
+            return prototype.name;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            FlatCode code = body();
+            host.allocate(Quota.ENVIRONMENTS, Quota.FRAME_BYTES +
+                    (long) Quota.REFERENCE_BYTES * prototype.scope.size());
+            if (host.counting) LoxEvents.scope(LoxEvents.FUNCTION_SCOPE);
+            Frame callFrame = new Frame(prototype.scope, frame);
+            for (int i = 0; i < arguments.size(); i++) {
+                callFrame.slots[i] = arguments.get(i);
+            }
+            return run(code, callFrame);
+        }
+
+        Object run(FlatCode code, Frame callFrame) {
+            if (execute(code, code.root, callFrame)) {
+                Object value = returnValue;
+                returnValue = null;
+                return value;
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "<fun " + prototype.name + "() ->  LoxFun>";
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.craftinginterpreters.lox.FlatCode.*;
+
+/*
+ * Lowers resolved statements into a FlatCode unit. The resolver depth of a
+ * local variable becomes a (depth, slot) pair, so the FlatInterpreter never
+ * looks variables up by name; a variable the Resolver left unresolved is a
+ * global.
+ */
+class Flattener implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+
+    // Innermost scope last; empty at the top level of the program.
+    private final List<Scope> scopes;
+
+    private int[] code = new int[256];
+    private int size = 0;
+    private final List<Object> constants = new ArrayList<>();
+
+    private Flattener(List<Scope> scopes) {
+        this.scopes = scopes;
+    }
+
+    static FlatCode program(List<Stmt> statements) {
+        return new Flattener(new ArrayList<>()).unit(statements);
+    }
+
+    static FlatCode function(Prototype prototype, List<Stmt> body) {
+        List<Scope> scopes = new ArrayList<>(prototype.enclosing);
+        scopes.add(prototype.scope);
+        return new Flattener(scopes).unit(body);
+    }
+
+    private FlatCode unit(List<Stmt> statements) {
+        int root = sequence(SEQ, -1, statements);
+        return new FlatCode(Arrays.copyOf(code, size), constants.toArray(), root);
+    }
+
+    private int sequence(int op, int scope, List<Stmt> statements) {
+        int[] children = new int[statements.size()];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = lower(statements.get(i));
+        }
+        int node = op == BLOCK ? emit(BLOCK, scope, children.length) : emit(SEQ, children.length);
+        for (int child : children) {
+            append(child);
+        }
+        return node;
+    }
+
+    private int lower(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private int lower(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private int lowerOptional(Expr expr) {
+        return expr == null ? -1 : lower(expr);
+    }
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr) {
+        int value = lower(expr.expression);
+        return emit(ASSIGN, value, constant(expr.name));
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr) {
+        int left = lower(expr.left);
+        int right = lower(expr.right);
+        int op = switch (expr.operator.type) {
+            case PLUS -> ADD;
+            case MINUS -> SUBTRACT;
+            case STAR -> MULTIPLY;
+            case SLASH -> DIVIDE;
+            case GREATER -> GREATER;
+            case GREATER_EQUAL -> GREATER_EQUAL;
+            case LESS -> LESS;
+            case LESS_EQUAL -> LESS_EQUAL;
+            case EQUAL_EQUAL -> EQUAL;
+            case BANG_EQUAL -> NOT_EQUAL;
+            case AND -> AND;
+            case OR -> OR;
+            default -> throw new IllegalStateException("Unexpected operator " + expr.operator);
+        };
+        return emit(op, left, right, constant(expr.operator));
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr) {
+        return lower(expr.expression);
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr) {
+        return emit(LITERAL, constant(expr.value));
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr) {
+        int right = lower(expr.right);
+        int op = expr.operator.type == TokenType.MINUS ? NEGATE : NOT;
+        return emit(op, right, constant(expr.operator));
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call expr) {
+        int callee = lower(expr.callee);
+        int[] arguments = new int[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = lower(expr.arguments.get(i));
+        }
+        int node = emit(CALL, callee, constant(expr.paren), arguments.length);
+        for (int argument : arguments) {
+            append(argument);
+        }
+        return node;
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr) {
+        int depth = expr.depth;
+        if (depth == -1) {
+            return emit(GET_GLOBAL, constant(expr.name));
+        }
+        Scope scope = scopes.get(scopes.size() - 1 - depth);
+        int slot = scope.slot(expr.name.lexeme);
+        if (slot == -1) {
+            throw new IllegalStateException("No slot for '" + expr.name.lexeme + "'.");
+        }
+        return emit(GET_LOCAL, depth, slot);
+    }
+
+    @Override
+    public Integer visitInlineFunExpr(Expr.InlineFun expr) {
+        return emit(FUNCTION, constant(prototype("(_inline_)", expr.parameters, expr.body)));
+    }
+
+    @Override
+    public Integer visitIfStmt(Stmt.If stmt) {
+        int condition = lower(stmt.condition);
+        int thenBranch = lower(stmt.ifBranch);
+        int elseBranch = stmt.elseBranch == null ? -1 : lower(stmt.elseBranch);
+        return emit(IF, condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Integer visitWhileStmt(Stmt.While stmt) {
+        int condition = lower(stmt.condition);
+        int body = lower(stmt.whileStmt);
+        return emit(WHILE, condition, body, constant(stmt.keyword));
+    }
+
+    @Override
+    public Integer visitBlockStmt(Stmt.Block stmt) {
+        Scope scope = new Scope();
+        scopes.add(scope);
+        int node = sequence(BLOCK, constant(scope), stmt.statements);
+        scopes.remove(scopes.size() - 1);
+        return node;
+    }
+
+    @Override
+    public Integer visitExpressionStmt(Stmt.Expression stmt) {
+        return emit(EXPRESSION, lower(stmt.expression));
+    }
+
+    @Override
+    public Integer visitPrintStmt(Stmt.Print stmt) {
+        return emit(PRINT, lower(stmt.expression));
+    }
+
+    @Override
+    public Integer visitVarStmt(Stmt.Var stmt) {
+        int initializer = lowerOptional(stmt.initializer);
+        if (scopes.isEmpty()) {
+            return emit(DEFINE_GLOBAL, constant(stmt.name.lexeme), initializer);
+        }
+        return emit(DEFINE_LOCAL, declare(stmt.name), initializer);
+    }
+
+    @Override
+    public Integer visitFunStmt(Stmt.Fun stmt) {
+        // Declared first: the body may refer to the function itself.
+        int target = scopes.isEmpty() ? -1 : declare(stmt.name);
+        int function = emit(FUNCTION,
+                constant(prototype(stmt.name.lexeme, stmt.parameters, stmt.body)));
+        if (target == -1) {
+            return emit(DEFINE_GLOBAL, constant(stmt.name.lexeme), function);
+        }
+        return emit(DEFINE_LOCAL, target, function);
+    }
+
+    @Override
+    public Integer visitReturnStmt(Stmt.Return stmt) {
+        return emit(RETURN, lowerOptional(stmt.expression));
+    }
+
+    @Override
+    public Integer visitClassStmt(Stmt.Class stmt) {
+        return emit(NOP);
+    }
+
+    private Prototype prototype(String name, List<Token> parameters, FunBody body) {
+        return new Prototype(name, parameters, body, new ArrayList<>(scopes));
+    }
+
+    private int declare(Token name) {
+        return scopes.get(scopes.size() - 1).declare(name.lexeme);
+    }
+
+    private int constant(Object value) {
+        constants.add(value);
+        return constants.size() - 1;
+    }
+
+    private int emit(int... record) {
+        int node = size;
+        for (int value : record) {
+            append(value);
+        }
+        return node;
+    }
+
+    private void append(int value) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+        }
+        code[size++] = value;
+    }
+}
@@ -0,0 +1,77 @@
+package com.craftinginterpreters.lox;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Body of a function declaration or an inline function.
+ *
+ * An eager body holds its statements from the start. A lazy body only
+ * remembers where its tokens start; the parser has brace-matched and
+ * syntax-checked it with the PreParser. The statements are built, and
+ * resolved against the scope chain the Resolver captured at the
+ * declaration, the first time the function is called.
+ */
+class FunBody implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Token> tokens;
+    private final int start;
+
+    private volatile List<Stmt> statements;
+    private List<Map<String, Boolean>> scopes;
+
+    FunBody(List<Stmt> statements) {
+        this.tokens = null;
+        this.start = -1;
+        this.statements = statements;
+    }
+
+    FunBody(List<Token> tokens, int start) {
+        this.tokens = tokens;
+        this.start = start;
+    }
+
+    boolean isParsed() {
+        return statements != null;
+    }
+
+    // The statements if they have been built, without building them.
+    List<Stmt> built() {
+        return statements;
+    }
+
+    // Called by the Resolver in place of walking the body.
+    void capture(List<Map<String, Boolean>> scopes) {
+        List<Map<String, Boolean>> copy = new ArrayList<>(scopes.size());
+        for (var scope : scopes) {
+            copy.add(new HashMap<>(scope));
+        }
+        this.scopes = copy;
+    }
+
+    // Errors in a lazy body are reported to the reporter of the context
+    // that first calls the function.
+    List<Stmt> statements(ErrorReporter reporter) {
+        var result = statements;
+        if (result != null) return result;
+        return force(reporter);
+    }
+
+    private synchronized List<Stmt> force(ErrorReporter reporter) {
+        if (statements != null) return statements;
+
+        List<Stmt> body = new Parser(tokens, true, reporter).body(start);
+        Resolver resolver = new Resolver(reporter);
+        resolver.resolveBody(scopes, body);
+        if (resolver.hadError()) {
+            throw new RuntimeError(tokens.get(start - 1), "Invalid function body.");
+        }
+        scopes = null;
+        statements = body;
+        return body;
+    }
+}
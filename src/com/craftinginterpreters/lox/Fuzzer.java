@@ -0,0 +1,367 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/*
+ * Writes random Lox programs from the grammar, for Conformance to run in
+ * every execution mode. The same seed always gives the same program.
+ *
+ * Every program ends, and soon: loops count a variable of their own up
+ * to a small bound and nothing else assigns it, and a function only calls
+ * functions declared before it, so nothing recurses. Expressions mostly
+ * have the type their operators want, but now and then one does not, a
+ * call has the wrong number of arguments or a variable is undefined, so
+ * that runtime errors and their lines are compared as well. A few
+ * programs do not compile: a semicolon is missing, or a return is outside
+ * any function.
+ */
+final class Fuzzer {
+
+    private enum Type { NUMBER, STRING, BOOLEAN, ANY }
+
+    private static final int MAX_DEPTH = 3;
+    private static final int MAX_FUNCTIONS = 5;
+
+    private final Random random;
+    private final StringBuilder out = new StringBuilder();
+    private int indent = 0;
+    private int names = 0;
+    private int functions = 0;
+
+    // Innermost last. A name maps to its type, or to the arity of the
+    // function it holds.
+    private final List<Map<String, Type>> variables = new ArrayList<>();
+    private final List<Map<String, Integer>> callables = new ArrayList<>();
+    // Loop counters, which can be read but are never assigned.
+    private final List<String> counters = new ArrayList<>();
+    private int functionDepth = 0;
+    // Inside a loop in a function, calls would multiply the work of every
+    // function that calls this one, so there are none.
+    private boolean inFunctionLoop = false;
+
+    Fuzzer(long seed) {
+        this.random = new Random(seed);
+    }
+
+    String program() {
+        push();
+        int statements = 4 + random.nextInt(10);
+        for (int i = 0; i < statements; i++) {
+            statement(0);
+        }
+        if (chance(100)) line("return 1;");
+        pop();
+
+        String program = out.toString();
+        if (chance(40)) {
+            // Drop one semicolon for a syntax error.
+            int at = program.indexOf(';', random.nextInt(program.length()));
+            if (at >= 0) program = program.substring(0, at) + program.substring(at + 1);
+        }
+        return program;
+    }
+
+    private void statement(int depth) {
+        int choice = random.nextInt(depth >= MAX_DEPTH ? 4 : 10);
+        switch (choice) {
+            case 0, 1 -> line("print " + expression(Type.ANY, 0) + ";");
+            case 2 -> variable();
+            case 3 -> assignment();
+            case 4 -> ifStatement(depth);
+            case 5 -> forStatement(depth);
+            case 6 -> whileStatement(depth);
+            case 7 -> {
+                line("{");
+                block(depth + 1);
+                line("}");
+            }
+            case 8 -> {
+                if (functions < MAX_FUNCTIONS && depth < 2) {
+                    function(depth);
+                } else {
+                    line("print " + expression(Type.NUMBER, 0) + ";");
+                }
+            }
+            case 9 -> {
+                if (functions < MAX_FUNCTIONS && depth == 0 && chance(3)) {
+                    counter();
+                } else if (functionDepth > 0 && chance(4)) {
+                    line("return " + expression(Type.NUMBER, 0) + ";");
+                } else {
+                    String call = call();
+                    line((call == null ? expression(Type.ANY, 0) : call) + ";");
+                }
+            }
+            default -> throw new IllegalStateException();
+        }
+    }
+
+    // Statements of a block whose braces the caller writes.
+    private void block(int depth) {
+        indent++;
+        push();
+        int statements = 1 + random.nextInt(3);
+        for (int i = 0; i < statements; i++) {
+            statement(depth);
+        }
+        pop();
+        indent--;
+    }
+
+    private void variable() {
+        Type type = type();
+        String name = name("v");
+        line("var " + name + " = " + expression(type, 0) + ";");
+        variables.get(variables.size() - 1).put(name, type);
+    }
+
+    private void assignment() {
+        List<String> candidates = new ArrayList<>();
+        for (Map<String, Type> scope : variables) candidates.addAll(scope.keySet());
+        if (candidates.isEmpty()) {
+            variable();
+            return;
+        }
+        String name = candidates.get(random.nextInt(candidates.size()));
+        line(name + " = " + expression(typeOf(name), 0) + ";");
+    }
+
+    private void ifStatement(int depth) {
+        line("if (" + expression(Type.BOOLEAN, 0) + ") {");
+        block(depth + 1);
+        if (chance(2)) {
+            line("} else {");
+            block(depth + 1);
+        }
+        line("}");
+    }
+
+    private void forStatement(int depth) {
+        String counter = name("i");
+        line("for (var " + counter + " = 0; " + counter + " < " + random.nextInt(5) + "; " +
+                counter + " = " + counter + " + 1) {");
+        loopBody(counter, depth);
+        line("}");
+    }
+
+    private void whileStatement(int depth) {
+        String counter = name("w");
+        line("var " + counter + " = 0;");
+        line("while (" + counter + " < " + random.nextInt(5) + ") {");
+        loopBody(counter, depth);
+        indent++;
+        line(counter + " = " + counter + " + 1;");
+        indent--;
+        line("}");
+    }
+
+    private void loopBody(String counter, int depth) {
+        boolean outer = inFunctionLoop;
+        inFunctionLoop = functionDepth > 0;
+        counters.add(counter);
+        block(depth + 1);
+        counters.remove(counters.size() - 1);
+        inFunctionLoop = outer;
+    }
+
+    private void function(int depth) {
+        String name = name("f");
+        int arity = random.nextInt(4);
+        List<String> parameters = new ArrayList<>();
+        for (int i = 0; i < arity; i++) parameters.add(name("p"));
+
+        functions++;
+        line("fun " + name + "(" + String.join(", ", parameters) + ") {");
+        functionBody(parameters, depth);
+        line("}");
+        callables.get(callables.size() - 1).put(name, arity);
+    }
+
+    private void functionBody(List<String> parameters, int depth) {
+        boolean loop = inFunctionLoop;
+        inFunctionLoop = false;
+        functionDepth++;
+        indent++;
+        push();
+        for (String parameter : parameters) {
+            variables.get(variables.size() - 1).put(parameter, Type.NUMBER);
+        }
+        int statements = 1 + random.nextInt(4);
+        for (int i = 0; i < statements; i++) {
+            statement(depth + 1);
+        }
+        line("return " + expression(Type.NUMBER, 0) + ";");
+        pop();
+        indent--;
+        functionDepth--;
+        inFunctionLoop = loop;
+    }
+
+    // A function that returns a closure over a variable of its own, which
+    // every call of the closure adds to.
+    private void counter() {
+        String maker = name("make");
+        String count = name("c");
+        String add = name("add");
+        functions++;
+        line("fun " + maker + "(start) {");
+        indent++;
+        line("var " + count + " = start;");
+        line("fun " + add + "(by) {");
+        indent++;
+        line(count + " = " + count + " + by;");
+        line("return " + count + ";");
+        indent--;
+        line("}");
+        line("return " + add + ";");
+        indent--;
+        line("}");
+        int instances = 1 + random.nextInt(2);
+        for (int i = 0; i < instances; i++) {
+            String instance = name("counter");
+            line("var " + instance + " = " + maker + "(" + number() + ");");
+            callables.get(callables.size() - 1).put(instance, 1);
+        }
+    }
+
+    private String expression(Type type, int depth) {
+        if (chance(1000)) {
+            // Wrong on purpose.
+            return switch (random.nextInt(3)) {
+                case 0 -> expression(Type.STRING, depth + 1);
+                case 1 -> "nil";
+                default -> "undefined" + random.nextInt(3);
+            };
+        }
+        boolean leaf = depth >= 3 || chance(3);
+        if (type == Type.ANY) type = Type.values()[random.nextInt(3)];
+        if (type == Type.NUMBER && !leaf && !inFunctionLoop && chance(3)) {
+            String call = call();
+            if (call != null) return call;
+        }
+        if (leaf || chance(6)) {
+            String variable = read(type);
+            if (variable != null) return variable;
+            return literal(type);
+        }
+        return switch (type) {
+            case NUMBER -> switch (random.nextInt(6)) {
+                case 0 -> unary("-", expression(Type.NUMBER, depth + 1));
+                case 1 -> "(" + expression(Type.NUMBER, depth + 1) + ")";
+                default -> expression(Type.NUMBER, depth + 1) + " " +
+                        pick("+", "-", "*", "/") + " " + expression(Type.NUMBER, depth + 1);
+            };
+            // At most one variable, so strings that loops add to grow
+            // linearly and not exponentially.
+            case STRING -> expression(Type.STRING, depth + 1) + " + " + literal(Type.STRING);
+            default -> switch (random.nextInt(5)) {
+                case 0 -> unary("!", expression(Type.ANY, depth + 1));
+                case 1 -> expression(Type.BOOLEAN, depth + 1) + " " + pick("and", "or") + " " +
+                        expression(Type.ANY, depth + 1);
+                case 2 -> expression(Type.ANY, depth + 1) + " " + pick("==", "!=") + " " +
+                        expression(Type.ANY, depth + 1);
+                default -> expression(Type.NUMBER, depth + 1) + " " +
+                        pick("<", "<=", ">", ">=") + " " + expression(Type.NUMBER, depth + 1);
+            };
+        };
+    }
+
+    // Unary operators bind tighter than any binary one.
+    private static String unary(String operator, String operand) {
+        return operator + (operand.contains(" ") ? "(" + operand + ")" : operand);
+    }
+
+    // A call of a function in scope, or null when there is none.
+    private String call() {
+        List<String> candidates = new ArrayList<>();
+        for (Map<String, Integer> scope : callables) candidates.addAll(scope.keySet());
+        if (candidates.isEmpty()) return null;
+        String name = candidates.get(random.nextInt(candidates.size()));
+        int arity = arityOf(name);
+        if (chance(200)) arity = arity + 1;
+        StringBuilder call = new StringBuilder(name).append('(');
+        for (int i = 0; i < arity; i++) {
+            if (i > 0) call.append(", ");
+            call.append(expression(Type.NUMBER, 2));
+        }
+        return call.append(')').toString();
+    }
+
+    // A variable of type in scope, or null when there is none.
+    private String read(Type type) {
+        List<String> candidates = new ArrayList<>();
+        for (Map<String, Type> scope : variables) {
+            for (Map.Entry<String, Type> entry : scope.entrySet()) {
+                if (entry.getValue() == type) candidates.add(entry.getKey());
+            }
+        }
+        if (type == Type.NUMBER) candidates.addAll(counters);
+        if (candidates.isEmpty()) return null;
+        return candidates.get(random.nextInt(candidates.size()));
+    }
+
+    private String literal(Type type) {
+        return switch (type) {
+            case NUMBER -> number();
+            case STRING -> "\"" + pick("a", "b", "lox", "", "x y") + "\"";
+            default -> pick("true", "false", "nil");
+        };
+    }
+
+    private String number() {
+        if (chance(5)) return random.nextInt(100) + "." + random.nextInt(10);
+        return Integer.toString(random.nextInt(10));
+    }
+
+    private Type type() {
+        int choice = random.nextInt(5);
+        return choice < 3 ? Type.NUMBER : choice == 3 ? Type.STRING : Type.BOOLEAN;
+    }
+
+    private Type typeOf(String name) {
+        for (int i = variables.size() - 1; i >= 0; i--) {
+            Type type = variables.get(i).get(name);
+            if (type != null) return type;
+        }
+        throw new IllegalStateException("No variable " + name);
+    }
+
+    private int arityOf(String name) {
+        for (int i = callables.size() - 1; i >= 0; i--) {
+            Integer arity = callables.get(i).get(name);
+            if (arity != null) return arity;
+        }
+        throw new IllegalStateException("No function " + name);
+    }
+
+    private void push() {
+        variables.add(new LinkedHashMap<>());
+        callables.add(new LinkedHashMap<>());
+    }
+
+    private void pop() {
+        variables.remove(variables.size() - 1);
+        callables.remove(callables.size() - 1);
+    }
+
+    private String name(String prefix) {
+        return prefix + names++;
+    }
+
+    private String pick(String... choices) {
+        return choices[random.nextInt(choices.length)];
+    }
+
+    // True one time in n.
+    private boolean chance(int n) {
+        return random.nextInt(n) == 0;
+    }
+
+    private void line(String text) {
+        out.append("    ".repeat(indent)).append(text).append('\n');
+    }
+}
@@ -0,0 +1,258 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * A census of the Lox values an interpreter keeps alive, for finding out
+ * what a long-running session's heap is made of (--heap-stats):
+ *
+ *   heapStats()   returns the census as a string
+ *   SIGUSR2       prints it to stderr
+ *
+ * It walks everything reachable from the globals and the current scope:
+ * environments and flat mode frames with the depth of their chain, closures
+ * by function with the environments their chains keep alive, strings and
+ * lists. Environments of calls further down the Java stack are only seen
+ * through the closures that capture them. Sizes are the same estimates
+ * Quota uses. There is no resolver side table to count: the only thing
+ * the resolver records is each variable's depth, in the Expr node.
+ *
+ * Strings do not remember where they were made, so with --heap-stats every
+ * concatenation also counts its bytes by line; those are bytes allocated
+ * so far, live or not.
+ *
+ * The signal is handled on a thread of its own while the script goes on
+ * running, so that census is taken without stopping it and may be a
+ * little off.
+ */
+final class HeapCensus {
+
+    private static final int TOP = 10;
+    private static final int ATTEMPTS = 3;
+
+    // String bytes allocated by line, shared by an interpreter and its
+    // forks.
+    static final class Sites {
+        private final Map<Integer, LongAdder> bytes = new ConcurrentHashMap<>();
+
+        // where is null in natives, which count as line 0.
+        void count(Token where, long allocated) {
+            bytes.computeIfAbsent(where == null ? 0 : where.line, line -> new LongAdder())
+                    .add(allocated);
+        }
+    }
+
+    static void define(Environment globals) {
+        globals.define("heapStats", new Native("heapStats", 0) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return report(interpreter);
+            }
+        });
+    }
+
+    // Prints the census of interpreter to err whenever the process gets
+    // SIGUSR2. Returns false where the JVM does not let us handle it.
+    static boolean onSignal(Interpreter interpreter, PrintStream err) {
+        try {
+            Class<?> signal = Class.forName("sun.misc.Signal");
+            Class<?> handler = Class.forName("sun.misc.SignalHandler");
+            Object proxy = Proxy.newProxyInstance(handler.getClassLoader(),
+                    new Class<?>[] {handler}, (self, method, args) -> switch (method.getName()) {
+                        case "handle" -> {
+                            err.print(report(interpreter));
+                            err.flush();
+                            yield null;
+                        }
+                        case "hashCode" -> System.identityHashCode(self);
+                        case "equals" -> self == args[0];
+                        default -> "heap census handler";
+                    });
+            signal.getMethod("handle", signal, handler).invoke(null,
+                    signal.getConstructor(String.class).newInstance("USR2"), proxy);
+            return true;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return false;
+        }
+    }
+
+    static String report(Interpreter interpreter) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                HeapCensus census = new HeapCensus();
+                census.walk(interpreter);
+                return census.format(interpreter.sites);
+            } catch (ConcurrentModificationException e) {
+                if (attempt == ATTEMPTS) return "Heap census failed: the heap kept changing.\n";
+            }
+        }
+    }
+
+    private final Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Deque<Object> pending = new ArrayDeque<>();
+    private Overlay overlay;
+
+    private final Map<Integer, Integer> environmentsByDepth = new TreeMap<>();
+    private final Map<Integer, Integer> framesByDepth = new TreeMap<>();
+    private long environmentBytes = 0;
+    private long frameBytes = 0;
+    // By function name: closures, and the environments or frames their
+    // chains reach, globals left out.
+    private final Map<String, Integer> closures = new HashMap<>();
+    private final Map<String, Set<Object>> retained = new HashMap<>();
+    private int strings = 0;
+    private long stringBytes = 0;
+    private int lists = 0;
+
+    private void walk(Interpreter interpreter) {
+        overlay = interpreter.overlay;
+        reach(interpreter.globals);
+        reach(interpreter.environment);
+        while (!pending.isEmpty()) {
+            visit(pending.pop());
+        }
+    }
+
+    private void reach(Object value) {
+        if (value == null || value instanceof Double || value instanceof Boolean) return;
+        if (seen.add(value)) pending.push(value);
+    }
+
+    private void visit(Object value) {
+        if (value instanceof Environment environment) {
+            Map<String, Object> values = environment.values();
+            environmentsByDepth.merge(depth(environment), 1, Integer::sum);
+            environmentBytes += size(environment);
+            values.values().forEach(this::reach);
+            if (environment.isFrozen() && overlay != null) {
+                for (Overlay layer = overlay; layer != null; layer = layer.parent) {
+                    layer.written(environment).values().forEach(this::reach);
+                }
+            }
+            reach(environment.enclosing());
+        } else if (value instanceof FlatInterpreter.Frame frame) {
+            framesByDepth.merge(depth(frame), 1, Integer::sum);
+            frameBytes += size(frame);
+            for (Object slot : frame.slots) reach(slot);
+            reach(frame.enclosing);
+        } else if (value instanceof LoxFun function) {
+            Set<Object> chain = closure(function.name());
+            for (Environment scope = function.closure(); scope != null && scope.enclosing() != null;
+                 scope = scope.enclosing()) {
+                chain.add(scope);
+            }
+            reach(function.closure());
+        } else if (value instanceof FlatInterpreter.Closure function) {
+            Set<Object> chain = closure(function.name());
+            for (FlatInterpreter.Frame scope = function.frame; scope != null;
+                 scope = scope.enclosing) {
+                chain.add(scope);
+            }
+            reach(function.frame);
+        } else if (value instanceof String string) {
+            strings++;
+            stringBytes += Quota.STRING_BYTES + string.length();
+        } else if (value instanceof LoxList list) {
+            lists++;
+            for (Object element : list.elements) reach(element);
+        }
+    }
+
+    private Set<Object> closure(String name) {
+        closures.merge(name, 1, Integer::sum);
+        return retained.computeIfAbsent(name,
+                key -> Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private static int depth(Environment environment) {
+        int depth = 0;
+        for (Environment scope = environment.enclosing(); scope != null; scope = scope.enclosing()) {
+            depth++;
+        }
+        return depth;
+    }
+
+    // Frames hang off the globals, so the outermost one is at depth 1.
+    private static int depth(FlatInterpreter.Frame frame) {
+        int depth = 0;
+        for (FlatInterpreter.Frame scope = frame; scope != null; scope = scope.enclosing) {
+            depth++;
+        }
+        return depth;
+    }
+
+    private static long size(Object scope) {
+        if (scope instanceof Environment environment) {
+            return Quota.ENVIRONMENT_BYTES
+                    + (long) Quota.REFERENCE_BYTES * environment.values().size();
+        }
+        return Quota.FRAME_BYTES
+                + (long) Quota.REFERENCE_BYTES * ((FlatInterpreter.Frame) scope).slots.length;
+    }
+
+    private String format(Sites sites) {
+        StringBuilder out = new StringBuilder("Heap census:\n");
+        scopes(out, "Environments", environmentsByDepth, environmentBytes);
+        if (!framesByDepth.isEmpty()) scopes(out, "Frames", framesByDepth, frameBytes);
+
+        int total = 0;
+        for (int count : closures.values()) total += count;
+        out.append(String.format("Closures: %d%n", total));
+        List<String> names = new ArrayList<>(closures.keySet());
+        names.sort((a, b) -> Long.compare(retainedBytes(b), retainedBytes(a)));
+        for (String name : names.subList(0, Math.min(TOP, names.size()))) {
+            out.append(String.format("  %-24s %8d closures %8d scopes %10d bytes%n", name,
+                    closures.get(name), retained.get(name).size(), retainedBytes(name)));
+        }
+
+        out.append(String.format("Strings: %d, %d bytes%n", strings, stringBytes));
+        out.append(String.format("Lists: %d%n", lists));
+        if (sites == null) {
+            out.append("String bytes allocated by line: not tracked without --heap-stats\n");
+        } else {
+            List<Map.Entry<Integer, LongAdder>> lines = new ArrayList<>(sites.bytes.entrySet());
+            lines.sort((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()));
+            out.append("String bytes allocated by line:\n");
+            for (var line : lines.subList(0, Math.min(TOP, lines.size()))) {
+                out.append(String.format("  %-24s %10d bytes%n",
+                        line.getKey() == 0 ? "natives" : "line " + line.getKey(),
+                        line.getValue().sum()));
+            }
+        }
+        return out.toString();
+    }
+
+    private long retainedBytes(String name) {
+        long bytes = 0;
+        for (Object scope : retained.get(name)) {
+            bytes += size(scope);
+        }
+        return bytes;
+    }
+
+    private static void scopes(StringBuilder out, String title, Map<Integer, Integer> byDepth,
+                               long bytes) {
+        int count = 0;
+        StringBuilder depths = new StringBuilder();
+        for (var entry : byDepth.entrySet()) {
+            count += entry.getValue();
+            depths.append(' ').append(entry.getKey()).append(':').append(entry.getValue());
+        }
+        out.append(String.format("%s: %d, %d bytes; by chain depth%s%n", title, count, bytes,
+                depths));
+    }
+}
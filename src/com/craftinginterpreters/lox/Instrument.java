@@ -0,0 +1,44 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+/*
+ * Callbacks for tools that watch a program run: debuggers, tracers and
+ * the like. See Trace and Debugger.
+ *
+ * An instrument is given to LoxRuntime.newContext(), whose context then
+ * runs an InstrumentedInterpreter, a subclass that calls the instrument
+ * around every statement and call. The other interpreters contain no
+ * hooks for instruments and no checks for them, and the subclass is not
+ * loaded until a context with an instrument is created, so until then no
+ * call of execute() or call() can reach it. That keeps instruments off
+ * the hot path, not every check: statements and calls still test the
+ * flags of the JFR counts, the metrics and the node profile (see
+ * LoxEvents, Metrics and NodeProfile).
+ *
+ * Callbacks run on the interpreter's thread, before or after the node they
+ * are about, so an instrument may block (to wait at a breakpoint) and may
+ * look at interpreter.environment.
+ */
+interface Instrument {
+
+    // Before stmt runs.
+    default void statement(Interpreter interpreter, Stmt stmt) {
+    }
+
+    // Before function is called with arguments from call.
+    default void enterCall(Interpreter interpreter, Expr.Call call, LoxCallable function,
+                           List<Object> arguments) {
+    }
+
+    // After a call entered with enterCall() returned result, or when threw
+    // is set, ended with an error.
+    default void exitCall(Interpreter interpreter, Expr.Call call, LoxCallable function,
+                          Object result, boolean threw) {
+    }
+
+    // Once for every runtime error, when it leaves the innermost statement
+    // it happened in.
+    default void runtimeError(Interpreter interpreter, RuntimeError error) {
+    }
+}
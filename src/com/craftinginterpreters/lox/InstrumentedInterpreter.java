@@ -0,0 +1,61 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.List;
+
+/*
+ * The tree interpreter with an Instrument called around every statement
+ * and call. Only contexts created with an instrument use it; see of().
+ */
+final class InstrumentedInterpreter extends Interpreter {
+
+    private final Instrument instrument;
+    // The error runtimeError() was last called for, which is thrown on
+    // through the statements around it.
+    private RuntimeError reported = null;
+
+    private InstrumentedInterpreter(PrintStream out, ErrorReporter reporter,
+                                    Instrument instrument) {
+        super(out, reporter);
+        this.instrument = instrument;
+    }
+
+    // Typed Interpreter so that verifying the caller, which every run
+    // does, does not load this class.
+    static Interpreter of(PrintStream out, ErrorReporter reporter, Instrument instrument) {
+        return new InstrumentedInterpreter(out, reporter, instrument);
+    }
+
+    @Override
+    Interpreter create(PrintStream out, ErrorReporter reporter) {
+        return new InstrumentedInterpreter(out, reporter, instrument);
+    }
+
+    @Override
+    void execute(Stmt stmt) {
+        instrument.statement(this, stmt);
+        try {
+            super.execute(stmt);
+        } catch (RuntimeError error) {
+            if (error != reported) {
+                reported = error;
+                instrument.runtimeError(this, error);
+            }
+            throw error;
+        }
+    }
+
+    @Override
+    Object call(Expr.Call expr, LoxCallable function, List<Object> values) {
+        instrument.enterCall(this, expr, function, values);
+        Object result = null;
+        boolean threw = true;
+        try {
+            result = super.call(expr, function, values);
+            threw = false;
+            return result;
+        } finally {
+            instrument.exitCall(this, expr, function, result, threw);
+        }
+    }
+}
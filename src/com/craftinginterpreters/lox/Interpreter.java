@@ -1,49 +1,154 @@
 package com.craftinginterpreters.lox;
 
+import java.io.PrintStream;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
-    Map<Expr, Integer> locals = new HashMap<>();
+    final PrintStream out;
+
+    final ErrorReporter reporter;
 
     Environment globals = new Environment();
 
     Environment environment = globals;
 
+    // Where writes to frozen environments go; null until fork() is used.
+    Overlay overlay = null;
+
+    // Steps left before the budget is charged again; see Budget.
+    int ticks = Integer.MAX_VALUE;
+    Budget budget = null;
+    // Steps taken from ticks by allocate() so the next tick charges.
+    int banked = 0;
+
+    // Bytes left before the quota is charged again, and what was allocated
+    // since the last charge, by kind; see Quota.
+    long allowance = Long.MAX_VALUE;
+    final long[] allocated = new long[Quota.KINDS];
+    Quota quota = null;
+
+    // The shadow stack of Lox frames while a Profiler is sampling.
+    Profiler.Stack frames = null;
+
+    // String bytes by line while a HeapCensus is tracking them.
+    HeapCensus.Sites sites = null;
+
+    // LoxEvents.counting as of the last call or run, so that statements
+    // check a plain field; a recording started in between is counted from
+    // the next call on.
+    boolean counting = false;
+
     Interpreter() {
-        globals.define("time", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
+        this(System.out, new ErrorReporter(System.err));
+    }
+
+    Interpreter(PrintStream out, ErrorReporter reporter) {
+        this.out = out;
+        this.reporter = reporter;
 
+        globals.define("time", new Native("time", 0) {
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
                 return new Date().toString();
             }
-
+        });
+        // Seconds from an arbitrary origin, for timing code: unlike time(),
+        // differences between two calls are meaningful to the nanosecond.
+        globals.define("clock", new Native("clock", 0) {
             @Override
-            public String toString() {
-                return "<native fun time>";
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return System.nanoTime() / 1e9;
             }
         });
+        Concurrency.define(globals);
+        Parallel.define(globals);
+        LoxList.define(globals);
+        HeapCensus.define(globals);
     }
 
     void interpret(List<Stmt> statements) {
+        counting = LoxEvents.counting;
         try {
             for(var stmt: statements) {
                 execute(stmt);
             }
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            reporter.runtimeError(error);
         }
     }
 
-    private void execute(Stmt stmt) {
+    // A new interpreter that starts from this one's globals and functions.
+    // Everything reachable from them and from the current scope is frozen
+    // and shared instead of copied; from then on each interpreter writes
+    // to its own Overlay and never sees the other's changes. Freezing
+    // walks every environment that no earlier fork froze, so a fork costs
+    // time in proportion to the scopes and functions created since the
+    // last one, and the first fork in proportion to all of them.
+    Interpreter fork(PrintStream out, ErrorReporter reporter) {
+        environment.freeze();
+        Overlay shared = overlay == null ? null : overlay.share();
+        overlay = new Overlay(shared);
+        Interpreter child = create(out, reporter);
+        child.globals = globals;
+        child.environment = globals;
+        child.overlay = new Overlay(shared);
+        child.budget = budget;
+        child.ticks = budget == null ? Integer.MAX_VALUE : 0;
+        child.quota = quota;
+        child.allowance = quota == null ? Long.MAX_VALUE : 0;
+        child.frames = frames == null ? null : frames.profiler().stack();
+        child.sites = sites;
+        child.counting = counting;
+        return child;
+    }
+
+    // Counts one loop iteration or call.
+    final void tick(Token where) {
+        if (--ticks < 0) charge(where);
+    }
+
+    private void charge(Token where) {
+        if (allowance < 0) {
+            allowance = quota.charge(allocated, where);
+        }
+        if (banked > 0) {
+            ticks = banked - 1;
+            banked = 0;
+        } else {
+            ticks = budget == null ? Integer.MAX_VALUE : budget.charge(where);
+        }
+    }
+
+    // Counts an allocation and checks the quota when the allowance runs
+    // out. where may be null in natives; the call fills it in.
+    final void allocate(int kind, long bytes, Token where) {
+        if (sites != null && kind == Quota.STRINGS) sites.count(where, bytes);
+        allocated[kind] += bytes;
+        if ((allowance -= bytes) < 0) {
+            allowance = quota == null ? Long.MAX_VALUE : quota.charge(allocated, where);
+        }
+    }
+
+    // Counts an allocation where there is no token to report; the quota is
+    // checked at the next tick instead. Without loops or calls a program
+    // can only allocate so much before it gets there.
+    final void allocate(int kind, long bytes) {
+        allocated[kind] += bytes;
+        if ((allowance -= bytes) < 0 && ticks > 0) {
+            banked += ticks;
+            ticks = 0;
+        }
+    }
+
+    Interpreter create(PrintStream out, ErrorReporter reporter) {
+        return new Interpreter(out, reporter);
+    }
+
+    void execute(Stmt stmt) {
+        if (counting) LoxEvents.statement(stmt.kind);
         stmt.accept(this);
     }
 
@@ -54,7 +159,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         var val = evaluate(expr.expression);
-        environment.assign(expr.name, val);
+        environment.assign(expr.name, val, overlay);
         return val;
     }
 
@@ -75,6 +180,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
                 }
 
                 if(left instanceof String && right instanceof String) {
+                    allocate(Quota.STRINGS, Quota.STRING_BYTES +
+                            (long) ((String) left).length() + ((String) right).length(), op);
                     yield  (String)left + (String) right;
                 }
 
@@ -144,6 +251,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     @Override
     public Object visitCallExpr(Expr.Call expr) {
 
+        tick(expr.paren);
         LoxCallable function = (LoxCallable) evaluate(expr.callee);
         List<Expr> arguments = expr.arguments;
         if(expr.arguments.size() != function.arity()) {
@@ -151,20 +259,41 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
                     function.arity() + " arguments but got " +
                     arguments.size() + ".");
         }
-        return function.call(this, arguments.stream().map(this::evaluate).toList());
+        try {
+            return call(expr, function, arguments.stream().map(this::evaluate).toList());
+        } catch (RuntimeError error) {
+            throw error.at(expr.paren);
+        } catch (StackOverflowError error) {
+            // Unbounded recursion; the innermost call with stack enough
+            // left to report it names the line.
+            throw new RuntimeError(expr.paren, "Stack overflow.");
+        }
+    }
+
+    // Calls function with the evaluated arguments of expr.
+    Object call(Expr.Call expr, LoxCallable function, List<Object> values) {
+        counting = LoxEvents.counting;
+        Object event = LoxEvents.begin();
+        if (frames != null) frames.enter(function.name(), expr.paren.line);
+        try {
+            return function.call(this, values);
+        } finally {
+            if (frames != null) frames.exit();
+            if (event != null) LoxEvents.call(event, function);
+        }
     }
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        if(!locals.containsKey(expr)) {
-            return globals.get(expr.name);
+        if(expr.depth == -1) {
+            return globals.get(expr.name, overlay);
         }
-        var distance = locals.get(expr);
-        return environment.getAt(distance, expr.name);
+        return environment.getAt(expr.depth, expr.name, overlay);
     }
 
     @Override
     public Object visitInlineFunExpr(Expr.InlineFun expr) {
+        allocate(Quota.CLOSURES, Quota.CLOSURE_BYTES);
         return new LoxFun(expr, environment);
     }
 
@@ -218,7 +347,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         var val = evaluate(stmt.expression);
-        System.out.println(stringify(val));
+        out.println(stringify(val));
         return null;
     }
 
@@ -228,13 +357,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         if(stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
-        environment.define(stmt.name.lexeme, value);
+        environment.define(stmt.name.lexeme, value, overlay);
         return null;
     }
 
     @Override
     public Void visitFunStmt(Stmt.Fun stmt) {
-        this.environment.define(stmt.name.lexeme, new LoxFun(stmt, environment));
+        allocate(Quota.CLOSURES, Quota.CLOSURE_BYTES);
+        this.environment.define(stmt.name.lexeme, new LoxFun(stmt, environment), overlay);
         return null;
     }
 
@@ -263,6 +393,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
         while (isTruthy(evaluate(stmt.condition))) {
+            tick(stmt.keyword);
+            if (frames != null) frames.line(stmt.keyword.line);
             execute(stmt.whileStmt);
         }
         return null;
@@ -270,6 +402,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
+        allocate(Quota.ENVIRONMENTS, Quota.ENVIRONMENT_BYTES);
+        if (counting) LoxEvents.scope(LoxEvents.BLOCK_SCOPE);
         executeBlock(stmt.statements, new Environment(this.environment));
         return null;
     }
@@ -288,8 +422,4 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
 
     }
-
-    public void resolve(Expr.Variable expr, int distance) {
-        locals.put(expr, distance);
-    }
 }
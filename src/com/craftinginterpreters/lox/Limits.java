@@ -0,0 +1,23 @@
+package com.craftinginterpreters.lox;
+
+/*
+ * What every run of a context may use, as set by --max-steps, --timeout,
+ * --soft-memory and --max-memory; Long.MAX_VALUE means no limit. See
+ * Budget and Quota.
+ */
+final class Limits {
+
+    long steps = Long.MAX_VALUE;
+    long timeoutMillis = Long.MAX_VALUE;
+    long softMemory = Long.MAX_VALUE;
+    long hardMemory = Long.MAX_VALUE;
+
+    void apply(LoxContext context) {
+        if (steps != Long.MAX_VALUE || timeoutMillis != Long.MAX_VALUE) {
+            context.limit(steps, timeoutMillis);
+        }
+        if (softMemory != Long.MAX_VALUE || hardMemory != Long.MAX_VALUE) {
+            context.limitMemory(softMemory, hardMemory);
+        }
+    }
+}
@@ -9,26 +9,200 @@ import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 
 public class Lox {
 
-    private static final Interpreter interpreter = new Interpreter();
+    private static LoxRuntime runtime;
+    private static LoxContext context;
+
+    // --lazy: pre-parse function bodies and build them on first call.
+    private static boolean lazy = false;
+    // --cache: reuse resolved programs from the ProgramCache.
+    private static boolean cache = false;
+    // --restore <file>: start from a Snapshot of the globals.
+    private static String restore = null;
+    // --snapshot <file>: save a Snapshot of the globals after the script.
+    private static String snapshot = null;
+    // --mode=tree|switch|flat: how resolved programs are executed.
+    private static String mode = "tree";
+    // --parallel: run independent statements and loop iterations on
+    // several threads.
+    private static boolean parallel = false;
+    // --batch <dir>: run every script of a directory on a worker pool.
+    private static String batch = null;
+    // --prelude <file>: with --batch, run once before every script.
+    private static String prelude = null;
+    // --max-steps <n>, --timeout <ms>, --soft-memory <bytes>,
+    // --max-memory <bytes>: limit each run; see Limits.
+    private static final Limits limits = new Limits();
+    // --profile <file>: sample the Lox stack and write collapsed stacks to
+    // file at exit; see Profiler.
+    private static String profile = null;
+    // --node-profile <file>: count runs and time per AST node and write
+    // the annotated AST as a Graphviz graph at exit; see NodeProfile.
+    private static String nodeProfile = null;
+    // --heap-stats: track where strings are allocated and print a
+    // HeapCensus to stderr on SIGUSR2.
+    private static boolean heapStats = false;
+    // --trace: print every statement and call; see Trace.
+    private static boolean trace = false;
+    // --debug: run the script under the console Debugger.
+    private static boolean debug = false;
+    // --coverage <file>: write line, branch and function Coverage as an
+    // LCOV tracefile at exit.
+    private static String coverageFile = null;
+    private static Coverage coverage = null;
+    // The file programs come from, for coverage.
+    private static String sourceName = "<stdin>";
+    // --metrics <port>: serve Metrics on 127.0.0.1:port and over JMX.
+    private static int metrics = -1;
+    // --server: run scripts sent over the LoxServer socket until killed.
+    private static boolean server = false;
+    // --client: send the script to a running LoxServer, if there is one
+    // and no other option is given.
+    private static boolean client = false;
 
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        List<String> scripts = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--lazy")) {
+                lazy = true;
+            } else if (arg.equals("--cache")) {
+                cache = true;
+            } else if (arg.equals("--restore") && i + 1 < args.length) {
+                restore = args[++i];
+            } else if (arg.equals("--snapshot") && i + 1 < args.length) {
+                snapshot = args[++i];
+            } else if (arg.equals("--mode=tree") || arg.equals("--mode=switch")
+                    || arg.equals("--mode=flat")) {
+                mode = arg.substring("--mode=".length());
+            } else if (arg.equals("--batch") && i + 1 < args.length) {
+                batch = args[++i];
+            } else if (arg.equals("--prelude") && i + 1 < args.length) {
+                prelude = args[++i];
+            } else if (arg.equals("--max-steps") && i + 1 < args.length) {
+                limits.steps = Long.parseLong(args[++i]);
+            } else if (arg.equals("--timeout") && i + 1 < args.length) {
+                limits.timeoutMillis = Long.parseLong(args[++i]);
+            } else if (arg.equals("--soft-memory") && i + 1 < args.length) {
+                limits.softMemory = Long.parseLong(args[++i]);
+            } else if (arg.equals("--max-memory") && i + 1 < args.length) {
+                limits.hardMemory = Long.parseLong(args[++i]);
+            } else if (arg.equals("--profile") && i + 1 < args.length) {
+                profile = args[++i];
+            } else if (arg.equals("--node-profile") && i + 1 < args.length) {
+                nodeProfile = args[++i];
+            } else if (arg.equals("--metrics") && i + 1 < args.length) {
+                metrics = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--trace")) {
+                trace = true;
+            } else if (arg.equals("--debug")) {
+                debug = true;
+            } else if (arg.equals("--coverage") && i + 1 < args.length) {
+                coverageFile = args[++i];
+            } else if (arg.equals("--heap-stats")) {
+                heapStats = true;
+            } else if (arg.equals("--parallel")) {
+                parallel = true;
+            } else if (arg.equals("--server")) {
+                server = true;
+            } else if (arg.equals("--client")) {
+                client = true;
+            } else if (arg.startsWith("--")) {
+                usage();
+            } else {
+                scripts.add(arg);
+            }
+        }
+        if (parallel && mode.equals("flat")) usage();
+        if (nodeProfile != null && mode.equals("flat")) usage();
+        if (nodeProfile != null && (trace || debug || coverageFile != null)) usage();
+        if ((trace || debug) && (mode.equals("flat") || parallel)) usage();
+        if (coverageFile != null && (trace || debug || server)) usage();
+        if (coverageFile != null && (mode.equals("flat") || parallel)) usage();
+        // The debugger reads its commands where the prompt reads code.
+        if (debug && (trace || scripts.isEmpty())) usage();
+        // The server runs scripts with options of its own, so it only gets
+        // a script given without any; anything else runs here.
+        if (client && args.length == 2 && scripts.size() == 1) {
+            try {
+                System.exit(LoxClient.runFile(LoxServer.defaultSocket(), scripts.get(0)));
+            } catch (IOException e) {
+                // No server listening; run the script here.
+            }
+        }
+        if (metrics >= 0) Metrics.start(metrics);
+        runtime = new LoxRuntime(lazy, mode, parallel);
+        if (coverageFile != null) {
+            Coverage counts = new Coverage();
+            coverage = counts;
+            Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                    counts.write(Paths.get(coverageFile), System.err)));
+        }
+        if (batch != null) {
+            if (!scripts.isEmpty()) usage();
+            System.exit(Batch.run(runtime, mode.equals("flat"), Paths.get(batch),
+                    prelude == null ? null : Paths.get(prelude), limits, coverage));
+        }
+        if (server) {
+            if (!scripts.isEmpty()) usage();
+            new LoxServer(runtime, lazy, LoxServer.defaultSocket(), limits).serve();
+            return;
+        }
+        if (debug) {
+            context = runtime.newContext(System.out, System.err, new Debugger(
+                    new BufferedReader(new InputStreamReader(System.in)), System.err));
+        } else if (trace) {
+            context = runtime.newContext(System.out, System.err, new Trace(System.err));
+        } else if (coverage != null) {
+            context = runtime.newContext(System.out, System.err, coverage);
+        } else if (nodeProfile != null) {
+            NodeProfile nodes = new NodeProfile();
+            context = runtime.newContext(System.out, System.err, nodes);
+            Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                    nodes.finish(Paths.get(nodeProfile), System.err)));
+        } else {
+            context = runtime.newContext(System.out, System.err);
+        }
+        limits.apply(context);
+        if (profile != null) {
+            Profiler profiler = new Profiler();
+            context.profile(profiler);
+            Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                    profiler.finish(Paths.get(profile), System.err)));
+        }
+        if (heapStats) {
+            context.trackAllocations();
+            if (!HeapCensus.onSignal(context.interpreter, System.err)) {
+                System.err.println("SIGUSR2 is not available; use heapStats() instead.");
+            }
+        }
+        if (restore != null) {
+            Snapshot.restore(context.interpreter, Paths.get(restore));
+        }
+        if (scripts.size() > 1) {
+            usage();
+        } else if (scripts.size() == 1) {
+            runFile(scripts.get(0));
         } else {
             runPrompt();
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: jlox [--lazy] [--cache] [--restore file] " +
+                "[--snapshot file] [--mode=tree|switch|flat] [--parallel] " +
+                "[--max-steps n] [--timeout ms] [--soft-memory bytes] [--max-memory bytes] " +
+                "[--profile file] [--node-profile file] [--heap-stats] [--trace | --debug] " +
+                "[--coverage file] [--metrics port] " +
+                "[--server | --client | --batch dir [--prelude file]] [script]");
+        System.exit(64);
+    }
+
     private static void runPrompt() throws IOException {
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
@@ -38,45 +212,84 @@ public class Lox {
             String line = reader.readLine();
             if (line == null) break;
             run(line);
-            hadError = false;
+            context.reporter.hadError = false;
         }
     }
 
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-        if (hadError) System.exit(65);
-        if (hadRuntimeError) System.exit(70);
+        sourceName = path;
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(Paths.get(path));
+        } catch (IOException e) {
+            System.err.println("Could not read " + path + ": " + e);
+            System.exit(66);
+            return;
+        }
+        String source = new String(bytes, Charset.defaultCharset());
+        if (cache) {
+            runCached(source);
+        } else {
+            run(source);
+        }
+        if (context.reporter.hadError) System.exit(65);
+        if (context.reporter.hadRuntimeError) System.exit(70);
+        if (snapshot != null) {
+            try {
+                Snapshot.save(context.interpreter, Paths.get(snapshot));
+            } catch (IOException e) {
+                System.err.println("Could not save the snapshot: " + e.getMessage());
+                Files.deleteIfExists(Paths.get(snapshot));
+                System.exit(74);
+            }
+        }
     }
 
+    private static void runCached(String source) {
+        ProgramCache programs = new ProgramCache(ProgramCache.defaultDirectory());
+        byte[] key = ProgramCache.key(source, lazy);
+        Program program = programs.load(key);
+        if (program == null) {
+            program = compile(source);
+            if (program == null) return;
+            programs.store(key, program);
+        }
+        execute(program);
+    }
 
     private static  void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+        Program program = compile(source);
+        if (program == null) return;
 
-        //if() return;
+        execute(program);
 
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
+    }
 
-        if(hadError) {
-            printExpression(tokens);
-            return;
-        };
-        //System.out.println(new AstRenderer().render(statements));
+    private static void execute(Program program) {
+        if (coverage != null) coverage.add(program, sourceName, context.reporter);
+        context.run(program);
+    }
 
-        //System.out.println(new AstPrinter().print(expr));
-        new Resolver(interpreter).resolve(statements);
+    // Scans, parses and resolves; null when there were errors.
+    private static Program compile(String source) {
+        ErrorReporter reporter = context.reporter;
+        Scanner scanner = new Scanner(source, reporter);
+        List<Token> tokens = scanner.scanTokens();
 
-        if(hadError) return;
+        List<Stmt> statements = runtime.parse(tokens, reporter);
 
-        interpreter.interpret(statements);
+        if(statements == null) {
+            printExpression(tokens);
+            return null;
+        };
 
+        return runtime.resolve(statements, reporter);
     }
 
     private static boolean printExpression(List<Token> tokens) {
         try {
-            var expr = new Parser(tokens).expression();
+            var interpreter = context.interpreter;
+            var expr = new Parser(tokens, context.reporter).expression();
             var val = interpreter.evaluate(expr);
             System.out.println("Expression value: " + interpreter.stringify(val));
             return true;
@@ -85,25 +298,4 @@ public class Lox {
             return false;
         }
     }
-
-    static void error(int line, String message) {
-        report(line, "", message);
-    }
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() +
-                "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
-    }
-    static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
-        } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
-        }
-    }
-
-    private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error" + where + ": " + message);
-        hadError = true;
-    }
-}
\ No newline at end of file
+}
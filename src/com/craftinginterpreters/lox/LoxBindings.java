@@ -0,0 +1,161 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.script.Bindings;
+
+/*
+ * Script bindings that are the globals of their own Interpreter, so a
+ * script reads and writes them directly and nothing is copied in or out
+ * per evaluation. Java numbers are stored as Lox numbers (Double).
+ *
+ * The natives every interpreter defines belong to the language, not to
+ * what the caller bound: get() finds them, but they are not counted or
+ * listed, clear() keeps them, and keySet(), values() and entrySet() are
+ * read-only copies of the rest.
+ */
+class LoxBindings implements Bindings {
+
+    final Interpreter interpreter;
+    final Output out = new Output();
+
+    LoxBindings() {
+        this.interpreter = new Interpreter(
+                new PrintStream(out, true, StandardCharsets.UTF_8), ErrorReporter.discarding());
+    }
+
+    private Map<String, Object> globals() {
+        return interpreter.globals.values();
+    }
+
+    private Map<String, Object> bound() {
+        Map<String, Object> bound = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : globals().entrySet()) {
+            if (!(entry.getValue() instanceof Native)) bound.put(entry.getKey(), entry.getValue());
+        }
+        return Collections.unmodifiableMap(bound);
+    }
+
+    static Object toLox(Object value) {
+        if (value instanceof Number && !(value instanceof Double)) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof Character) return value.toString();
+        return value;
+    }
+
+    static Object toJava(Object value) {
+        return value == Constants.UNINITIALIZED ? null : value;
+    }
+
+    @Override
+    public Object put(String name, Object value) {
+        checkKey(name);
+        return toJava(globals().put(name, toLox(value)));
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends Object> toMerge) {
+        for (Map.Entry<? extends String, ? extends Object> entry : toMerge.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        checkKey(key);
+        return globals().containsKey(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+        checkKey(key);
+        return toJava(globals().get(key));
+    }
+
+    @Override
+    public Object remove(Object key) {
+        checkKey(key);
+        return toJava(globals().remove(key));
+    }
+
+    @Override
+    public int size() {
+        return bound().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return bound().isEmpty();
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return bound().containsValue(toLox(value));
+    }
+
+    @Override
+    public void clear() {
+        globals().values().removeIf(value -> !(value instanceof Native));
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return bound().keySet();
+    }
+
+    @Override
+    public Collection<Object> values() {
+        return bound().values();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return bound().entrySet();
+    }
+
+    private static void checkKey(Object key) {
+        if (key == null) throw new NullPointerException("key can not be null");
+        if (!(key instanceof String)) throw new ClassCastException("key should be a String");
+        if (((String) key).isEmpty()) throw new IllegalArgumentException("key can not be empty");
+    }
+
+    // Hands each printed line to the writer of the ScriptContext being
+    // evaluated; the PrintStream flushes after every println.
+    static class Output extends OutputStream {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        Writer target;
+
+        @Override
+        public void write(int b) {
+            buffer.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            if (target == null || buffer.size() == 0) return;
+            try {
+                target.write(buffer.toString(StandardCharsets.UTF_8));
+                target.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.reset();
+        }
+    }
+}
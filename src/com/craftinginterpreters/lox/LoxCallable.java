@@ -6,4 +6,9 @@ public interface LoxCallable {
 
     int arity();
     Object call(Interpreter interpreter, List<Object> arguments);
+
+    // What profiles call it.
+    default String name() {
+        return toString();
+    }
 }
@@ -0,0 +1,55 @@
+package com.craftinginterpreters.lox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/*
+ * Thin client for LoxServer: sends a script path and copies the output
+ * frames to this process's stdout and stderr.
+ */
+class LoxClient {
+
+    // Exit status when the connection breaks after the script was sent.
+    static final int LOST = 74;
+
+    // Returns the exit status of the script. Throws only when no server
+    // is listening, so the caller can run the script itself. Once the
+    // script is sent it may have run in part, so running it again could
+    // repeat its effects: a broken connection is reported and gives LOST.
+    static int runFile(Path socket, String script) throws IOException {
+        SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeByte(LoxServer.REQUEST_PATH);
+            LoxServer.writeString(out, Paths.get(script).toAbsolutePath().toString());
+            out.flush();
+
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            for (;;) {
+                byte type = in.readByte();
+                if (type == LoxServer.EXIT) {
+                    System.out.flush();
+                    System.err.flush();
+                    return in.readInt();
+                }
+                byte[] chunk = new byte[in.readInt()];
+                in.readFully(chunk);
+                if (type == LoxServer.STDOUT) {
+                    System.out.write(chunk);
+                } else {
+                    System.err.write(chunk);
+                }
+            }
+        } catch (IOException e) {
+            System.out.flush();
+            System.err.println("Lost the connection to the jlox server: " + e);
+            return LOST;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+
+/*
+ * One independent execution state: an interpreter with its own globals,
+ * output and error reporter. Programs are shared, contexts are not; use a
+ * context from one thread at a time.
+ */
+public final class LoxContext {
+
+    private final LoxRuntime runtime;
+    final Interpreter interpreter;
+    final ErrorReporter reporter;
+    private final boolean flat;
+    private final boolean parallel;
+    // The profile a ProfiledInterpreter records into, or null.
+    private final NodeProfile nodes;
+
+    LoxContext(LoxRuntime runtime, Interpreter interpreter, boolean flat, boolean parallel) {
+        this(runtime, interpreter, flat, parallel, null);
+    }
+
+    LoxContext(LoxRuntime runtime, Interpreter interpreter, boolean flat, boolean parallel,
+               NodeProfile nodes) {
+        this.runtime = runtime;
+        this.interpreter = interpreter;
+        this.reporter = interpreter.reporter;
+        this.flat = flat;
+        this.parallel = parallel;
+        this.nodes = nodes;
+    }
+
+    // Limits every later run to a number of steps (loop iterations and
+    // calls) and a time; Long.MAX_VALUE means no limit. Exceeding either is
+    // a runtime error.
+    public void limit(long steps, long timeoutMillis) {
+        long timeoutNanos = timeoutMillis >= Long.MAX_VALUE / 1_000_000
+                ? Long.MAX_VALUE : timeoutMillis * 1_000_000;
+        interpreter.budget = new Budget(steps, timeoutNanos);
+    }
+
+    // Limits the bytes one run may allocate (soft) and the bytes this
+    // context and its forks may allocate in all (hard), roughly counted;
+    // Long.MAX_VALUE means no limit. See Quota.
+    public void limitMemory(long soft, long hard) {
+        interpreter.quota = new Quota(soft, hard);
+    }
+
+    // Samples every later run with profiler; see Profiler.
+    void profile(Profiler profiler) {
+        interpreter.frames = profiler.stack();
+    }
+
+    // Counts string bytes by the line that allocates them in every later
+    // run, for the heap census; see HeapCensus.
+    void trackAllocations() {
+        interpreter.sites = new HeapCensus.Sites();
+    }
+
+    // Returns the exit status of a script: 0, or 70 after a runtime error.
+    public int run(Program program) {
+        reporter.hadRuntimeError = false;
+        if (interpreter.budget != null) {
+            interpreter.budget.reset();
+            interpreter.ticks = 0;
+        }
+        interpreter.banked = 0;
+        if (interpreter.quota != null) {
+            interpreter.quota.reset();
+            interpreter.allowance = 0;
+        }
+        if (interpreter.frames != null) interpreter.frames.enter("<script>", 0);
+        if (nodes != null) nodes.ran(program.statements);
+        Metrics.SCRIPTS.increment();
+        long start = System.nanoTime();
+        try {
+            if (flat) {
+                new FlatInterpreter(interpreter).interpret(program.statements);
+            } else if (parallel) {
+                new Scheduler(interpreter).interpret(program.statements);
+            } else {
+                interpreter.interpret(program.statements);
+            }
+        } catch (StackOverflowError error) {
+            // Calls report their own overflow with a line; this is for
+            // nesting deep enough to overflow outside any call.
+            reporter.runtimeError(new RuntimeError("Stack overflow."));
+        }
+        if (interpreter.quota != null) {
+            interpreter.quota.settle(interpreter.allocated);
+        }
+        if (interpreter.frames != null) interpreter.frames.exit();
+        Metrics.EXECUTE.record(System.nanoTime() - start);
+        return reporter.hadRuntimeError ? 70 : 0;
+    }
+
+    // A context that starts from this one's globals and functions and
+    // shares them copy-on-write: forking copies no values, and neither
+    // context sees the other's later writes; see Interpreter.fork. Contexts
+    // in flat mode keep locals in frames that cannot be shared this way.
+    public LoxContext fork(PrintStream out, PrintStream err) {
+        if (flat) {
+            throw new IllegalStateException("Contexts in flat mode cannot be forked.");
+        }
+        return new LoxContext(runtime, interpreter.fork(out, new ErrorReporter(err)), false,
+                parallel, nodes);
+    }
+
+    // Compiles and runs source; 65 when it does not compile.
+    public int eval(String source) {
+        reporter.hadError = false;
+        Program program = runtime.compile(source, reporter);
+        if (program == null) return 65;
+        return run(program);
+    }
+}
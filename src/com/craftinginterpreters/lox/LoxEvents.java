@@ -0,0 +1,235 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/*
+ * Java Flight Recorder events for what Lox code does, so that it lands in
+ * the same recording as GC and JIT activity:
+ *
+ *   lox.Call          a call that took longer than its threshold (1 ms
+ *                     unless the recording's settings say otherwise)
+ *   lox.RuntimeError  a runtime error with its message and line
+ *   lox.Environments  every second, environments created per scope kind
+ *   lox.Statements    every second, statements executed per kind
+ *
+ * Loading the first event class starts up JFR, which takes a good part of
+ * a second, so nothing here touches one until a recording is running:
+ * until then every hook costs the check of a flag, and statements check a
+ * copy of it in the interpreter. Metrics count calls and environments
+ * through the same hooks, which run while either wants them, so counting
+ * costs nothing more than those checks while both are off. A JVM started with -XX:StartFlightRecording
+ * is seen at once. Recordings started later with jcmd are only picked up
+ * after listen(), which the server and the metrics endpoint call: short
+ * runs that could not be recorded that way start no listener thread. The
+ * counts behind the periodic events are only kept while a recording
+ * enables one of them.
+ */
+final class LoxEvents {
+
+    @Name("lox.Call")
+    @Label("Lox Call")
+    @Category("Lox")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class Call extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Arity")
+        int arity;
+    }
+
+    @Name("lox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Category("Lox")
+    @StackTrace(false)
+    static final class ErrorEvent extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+    }
+
+    @Name("lox.Environments")
+    @Label("Lox Environments")
+    @Description("Environments and flat mode frames created since the last event")
+    @Category("Lox")
+    @Period("1 s")
+    @StackTrace(false)
+    static final class Environments extends Event {
+        @Label("Blocks")
+        long blocks;
+
+        @Label("Function Calls")
+        long functions;
+    }
+
+    @Name("lox.Statements")
+    @Label("Lox Statements")
+    @Description("Statements executed since the last event")
+    @Category("Lox")
+    @Period("1 s")
+    @StackTrace(false)
+    static final class Statements extends Event {
+        @Label("If") long ifs;
+        @Label("While") long whiles;
+        @Label("Block") long blocks;
+        @Label("Expression") long expressions;
+        @Label("Print") long prints;
+        @Label("Var") long vars;
+        @Label("Fun") long funs;
+        @Label("Return") long returns;
+    }
+
+    static final int BLOCK_SCOPE = 0;
+    static final int FUNCTION_SCOPE = 1;
+
+    // Whether a recording is running, and whether it wants the counts
+    // below.
+    static volatile boolean enabled = false;
+    private static volatile boolean kept = false;
+    // Whether interpreters call statement() and scope(), and whether
+    // begin() does anything: while a recording needs them or Metrics
+    // counts.
+    static volatile boolean counting = false;
+    private static volatile boolean hooked = false;
+    // Whether the periodic events are registered; see update().
+    private static boolean periodic;
+    // Whether a listener is registered or being registered.
+    private static boolean listening;
+
+    private static final LongAdder[] scopes = adders(2);
+    private static final LongAdder[] statements = adders(Stmt.CLASS + 1);
+
+    static {
+        if (FlightRecorder.isInitialized()) listen();
+    }
+
+    // Follows recordings started from now on. Registering the listener
+    // takes a while unless JFR is running already, so a daemon thread does
+    // it then.
+    static synchronized void listen() {
+        if (listening) return;
+        listening = true;
+        if (FlightRecorder.isInitialized()) {
+            register();
+        } else {
+            Thread listen = new Thread(LoxEvents::register, "lox-jfr");
+            listen.setDaemon(true);
+            listen.start();
+        }
+    }
+
+    private static void register() {
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recordingStateChanged(Recording recording) {
+                update();
+            }
+        });
+        update();
+    }
+
+    // Also called by Metrics.start().
+    static synchronized void update() {
+        // Asking for recordings would start JFR up if nothing else had.
+        enabled = FlightRecorder.isInitialized()
+                && FlightRecorder.getFlightRecorder().getRecordings().stream()
+                .anyMatch(recording -> recording.getState() == RecordingState.RUNNING);
+        kept = false;
+        if (enabled) {
+            if (!periodic) {
+                FlightRecorder.addPeriodicEvent(Environments.class, LoxEvents::emitEnvironments);
+                FlightRecorder.addPeriodicEvent(Statements.class, LoxEvents::emitStatements);
+                periodic = true;
+            }
+            kept = EventType.getEventType(Environments.class).isEnabled()
+                    || EventType.getEventType(Statements.class).isEnabled();
+        }
+        counting = kept || Metrics.enabled;
+        hooked = enabled || Metrics.enabled;
+    }
+
+    private static void emitEnvironments() {
+        Environments event = new Environments();
+        event.blocks = scopes[BLOCK_SCOPE].sumThenReset();
+        event.functions = scopes[FUNCTION_SCOPE].sumThenReset();
+        event.commit();
+    }
+
+    private static void emitStatements() {
+        Statements event = new Statements();
+        event.ifs = statements[Stmt.IF].sumThenReset();
+        event.whiles = statements[Stmt.WHILE].sumThenReset();
+        event.blocks = statements[Stmt.BLOCK].sumThenReset();
+        event.expressions = statements[Stmt.EXPRESSION].sumThenReset();
+        event.prints = statements[Stmt.PRINT].sumThenReset();
+        event.vars = statements[Stmt.VAR].sumThenReset();
+        event.funs = statements[Stmt.FUN].sumThenReset();
+        event.returns = statements[Stmt.RETURN].sumThenReset();
+        event.commit();
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    static void scope(int kind) {
+        if (kept) scopes[kind].increment();
+        Metrics.ENVIRONMENTS.increment();
+    }
+
+    static void statement(int kind) {
+        if (kept) statements[kind].increment();
+    }
+
+    // A started lox.Call event, or null when no recording is running; see
+    // call(). Typed Object so that callers do not load the event class.
+    static Object begin() {
+        if (!hooked) return null;
+        Metrics.CALLS.increment();
+        if (!enabled) return null;
+        Call event = new Call();
+        event.begin();
+        return event;
+    }
+
+    static void call(Object started, LoxCallable function) {
+        Call event = (Call) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.function = function.name();
+            event.arity = function.arity();
+            event.commit();
+        }
+    }
+
+    static void runtimeError(RuntimeError error) {
+        if (!enabled) return;
+        ErrorEvent event = new ErrorEvent();
+        if (event.isEnabled()) {
+            event.message = error.getMessage();
+            event.line = error.token == null ? 0 : error.token.line;
+            event.commit();
+        }
+    }
+}
@@ -1,27 +1,38 @@
 package com.craftinginterpreters.lox;
 
+import java.io.Serializable;
 import java.util.List;
 
-public class LoxFun implements LoxCallable {
+public class LoxFun implements LoxCallable, Serializable {
+    private static final long serialVersionUID = 1L;
 
     private final List<Token> parameters;
-    private final List<Stmt> statements;
+    private final FunBody body;
     private final Environment closure;
 
     private final String name;
     LoxFun(Stmt.Fun funStmt, Environment closure) {
         this.parameters = funStmt.parameters;
-        this.statements = funStmt.block;
+        this.body = funStmt.body;
         this.name = funStmt.name.lexeme;
         this.closure = closure;
     }
 
     LoxFun(Expr.InlineFun funStmt, Environment closure) {
         this.parameters = funStmt.parameters;
-        this.statements = funStmt.statements;
+        this.body = funStmt.body;
         this.closure = closure;
         this.name = "(_inline_)";
     }
+    Environment closure() {
+        return closure;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
     @Override
     public int arity() {
         return parameters.size();
@@ -29,12 +40,14 @@ public class LoxFun implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        interpreter.allocate(Quota.ENVIRONMENTS, Quota.ENVIRONMENT_BYTES);
+        if (interpreter.counting) LoxEvents.scope(LoxEvents.FUNCTION_SCOPE);
         Environment funEnv = new Environment(closure);
         for (int i=0; i < parameters.size(); i++) {
             funEnv.define(parameters.get(i).lexeme, arguments.get(i));
         }
         try {
-            interpreter.executeBlock(statements, funEnv);
+            interpreter.executeBlock(body.statements(interpreter.reporter), funEnv);
             return null;
         } catch (Return ret) {
             return ret.getValue();
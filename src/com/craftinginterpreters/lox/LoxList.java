@@ -0,0 +1,66 @@
+package com.craftinginterpreters.lox;
+
+import java.io.Serializable;
+import java.util.List;
+
+/*
+ * An immutable list of values, as produced by parMap. Lists only ever hold
+ * values that may cross threads, so they can be shared freely.
+ *
+ *   len(list)        the number of elements
+ *   get(list, i)     the element at index i
+ */
+final class LoxList implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final Object[] elements;
+
+    LoxList(Object[] elements) {
+        this.elements = elements;
+    }
+
+    static void define(Environment globals) {
+        globals.define("len", new Native("len", 1) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return (double) list(arguments.get(0)).elements.length;
+            }
+        });
+
+        globals.define("get", new Native("get", 2) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object[] elements = list(arguments.get(0)).elements;
+                Object index = arguments.get(1);
+                if (!(index instanceof Double) || (double) index != Math.floor((double) index)
+                        || (double) index < 0 || (double) index >= elements.length) {
+                    throw new RuntimeError("List index out of range.");
+                }
+                return elements[(int) (double) index];
+            }
+        });
+    }
+
+    private static LoxList list(Object value) {
+        if (value instanceof LoxList) return (LoxList) value;
+        throw new RuntimeError("Expected a list.");
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("[");
+        for (int i = 0; i < elements.length; i++) {
+            if (i > 0) text.append(", ");
+            Object element = elements[i];
+            if (element == null) {
+                text.append("nil");
+            } else if (element instanceof Double && element.toString().endsWith(".0")) {
+                String number = element.toString();
+                text.append(number, 0, number.length() - 2);
+            } else {
+                text.append(element);
+            }
+        }
+        return text.append("]").toString();
+    }
+}
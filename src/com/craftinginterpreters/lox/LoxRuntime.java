@@ -0,0 +1,106 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+
+/*
+ * Entry point for embedding. A runtime compiles sources into Programs and
+ * creates LoxContexts to run them. It holds no mutable state, so one
+ * runtime can serve any number of threads; each context owns its own
+ * interpreter, globals and errors and must be used by one thread at a time.
+ */
+public final class LoxRuntime {
+
+    private final boolean lazy;
+    private final String mode;
+    private final boolean parallel;
+
+    public LoxRuntime() {
+        this(false, "tree");
+    }
+
+    // mode is "tree", "switch" or "flat"; see Lox for what they mean.
+    public LoxRuntime(boolean lazy, String mode) {
+        this(lazy, mode, false);
+    }
+
+    // parallel runs independent statements and loop iterations on several
+    // threads; see Scheduler. It needs the tree or switch mode.
+    public LoxRuntime(boolean lazy, String mode, boolean parallel) {
+        if (!mode.equals("tree") && !mode.equals("switch") && !mode.equals("flat")) {
+            throw new IllegalArgumentException("Unknown execution mode: " + mode);
+        }
+        if (parallel && mode.equals("flat")) {
+            throw new IllegalArgumentException("Flat mode cannot run in parallel.");
+        }
+        this.lazy = lazy;
+        this.mode = mode;
+        this.parallel = parallel;
+    }
+
+    // Counts what every runtime in the process does from now on and serves
+    // it on port of the loopback interface and over JMX; see Metrics.
+    public static void serveMetrics(int port) throws IOException {
+        Metrics.start(port);
+    }
+
+    // Returns null when the source has errors; they are printed to err.
+    public Program compile(String source, PrintStream err) {
+        return compile(source, new ErrorReporter(err));
+    }
+
+    public LoxContext newContext(PrintStream out, PrintStream err) {
+        ErrorReporter reporter = new ErrorReporter(err);
+        Interpreter interpreter = mode.equals("switch")
+                ? new SwitchInterpreter(out, reporter)
+                : new Interpreter(out, reporter);
+        return new LoxContext(this, interpreter, mode.equals("flat"), parallel);
+    }
+
+    // A context that reports every statement and call to instrument; see
+    // Instrument. Instruments follow the tree, so the context runs in tree
+    // mode whatever the runtime's mode, and not in parallel.
+    LoxContext newContext(PrintStream out, PrintStream err, Instrument instrument) {
+        if (mode.equals("flat") || parallel) {
+            throw new IllegalStateException("Instruments need the tree or switch mode.");
+        }
+        ErrorReporter reporter = new ErrorReporter(err);
+        return new LoxContext(this, InstrumentedInterpreter.of(out, reporter, instrument),
+                false, false);
+    }
+
+    // A context that counts runs and time per node into profile; see
+    // NodeProfile. Like instruments, profiles follow the tree, so the
+    // context runs in tree mode whatever the runtime's mode.
+    LoxContext newContext(PrintStream out, PrintStream err, NodeProfile profile) {
+        if (mode.equals("flat")) {
+            throw new IllegalStateException("Node profiles need the tree or switch mode.");
+        }
+        ErrorReporter reporter = new ErrorReporter(err);
+        return new LoxContext(this, ProfiledInterpreter.of(out, reporter, profile),
+                false, parallel, profile);
+    }
+
+    Program compile(String source, ErrorReporter reporter) {
+        List<Stmt> statements = parse(new Scanner(source, reporter).scanTokens(), reporter);
+        if (statements == null) return null;
+        return resolve(statements, reporter);
+    }
+
+    List<Stmt> parse(List<Token> tokens, ErrorReporter reporter) {
+        long start = System.nanoTime();
+        List<Stmt> statements = new Parser(tokens, lazy, reporter).parse();
+        Metrics.PARSE.record(System.nanoTime() - start);
+        if (reporter.hadError) return null;
+        return statements;
+    }
+
+    Program resolve(List<Stmt> statements, ErrorReporter reporter) {
+        long start = System.nanoTime();
+        new Resolver(reporter).resolve(statements);
+        Metrics.RESOLVE.record(System.nanoTime() - start);
+        if (reporter.hadError) return null;
+        return new Program(statements);
+    }
+}
@@ -0,0 +1,255 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+
+/*
+ * javax.script engine for embedding Lox. compile() scans, parses and
+ * resolves once; the CompiledScript it returns can then be evaluated any
+ * number of times, against the engine's bindings or against others made
+ * by createBindings(), each of which is an independent set of globals.
+ *
+ * Bindings from createBindings() are used in place. Any other Bindings
+ * are copied into fresh globals before a script runs and the globals are
+ * copied back afterwards, all but the natives; see LoxBindings.
+ */
+public class LoxScriptEngine extends AbstractScriptEngine implements Compilable, Invocable {
+
+    private final ScriptEngineFactory factory;
+    private final LoxRuntime runtime = new LoxRuntime();
+
+    public LoxScriptEngine() {
+        this(new LoxScriptEngineFactory());
+    }
+
+    LoxScriptEngine(ScriptEngineFactory factory) {
+        this.factory = factory;
+        context.setBindings(createBindings(), ScriptContext.ENGINE_SCOPE);
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new LoxBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return run(compileProgram(script), context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(read(reader), context);
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        return new LoxCompiledScript(compileProgram(script));
+    }
+
+    @Override
+    public CompiledScript compile(Reader script) throws ScriptException {
+        return compile(read(script));
+    }
+
+    private class LoxCompiledScript extends CompiledScript {
+        private final Program program;
+
+        LoxCompiledScript(Program program) {
+            this.program = program;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            return run(program, context);
+        }
+
+        @Override
+        public LoxScriptEngine getEngine() {
+            return LoxScriptEngine.this;
+        }
+    }
+
+    private Program compileProgram(String source) throws ScriptException {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        Program program = runtime.compile(source,
+                new PrintStream(errors, true, StandardCharsets.UTF_8));
+        if (program == null) {
+            throw new ScriptException(errors.toString(StandardCharsets.UTF_8).strip());
+        }
+        return program;
+    }
+
+    // Returns the value of the last statement when it is an expression.
+    private Object run(Program program, ScriptContext context) throws ScriptException {
+        Bindings scope = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        LoxBindings bindings = bindingsFor(scope);
+        Bindings global = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+        if (global != null) {
+            for (Map.Entry<String, Object> entry : global.entrySet()) {
+                if (!bindings.containsKey(entry.getKey())) {
+                    bindings.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        Interpreter interpreter = bindings.interpreter;
+        bindings.out.target = context.getWriter();
+        try {
+            List<Stmt> statements = program.statements;
+            int last = statements.size() - 1;
+            for (int i = 0; i < last; i++) {
+                interpreter.execute(statements.get(i));
+            }
+            if (last < 0) return null;
+            Stmt tail = statements.get(last);
+            if (tail instanceof Stmt.Expression) {
+                return LoxBindings.toJava(interpreter.evaluate(((Stmt.Expression) tail).expression));
+            }
+            interpreter.execute(tail);
+            return null;
+        } catch (RuntimeError error) {
+            throw scriptException(error);
+        } finally {
+            interpreter.out.flush();
+            bindings.out.target = null;
+            if (bindings != scope) {
+                for (Map.Entry<String, Object> entry : bindings.entrySet()) {
+                    scope.put(entry.getKey(), LoxBindings.toJava(entry.getValue()));
+                }
+            }
+        }
+    }
+
+    // A native called straight from Java raises an error without a token,
+    // as no call expression was there to give it one; its line is -1,
+    // unknown.
+    private static ScriptException scriptException(RuntimeError error) {
+        return new ScriptException(error.getMessage(), null,
+                error.token == null ? -1 : error.token.line);
+    }
+
+    private static LoxBindings bindingsFor(Bindings scope) {
+        if (scope instanceof LoxBindings) return (LoxBindings) scope;
+        LoxBindings bindings = new LoxBindings();
+        if (scope != null) bindings.putAll(scope);
+        return bindings;
+    }
+
+    @Override
+    public Object invokeFunction(String name, Object... args)
+            throws ScriptException, NoSuchMethodException {
+        Bindings scope = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        Object callee = scope.get(name);
+        if (!(callee instanceof LoxCallable)) {
+            throw new NoSuchMethodException(name);
+        }
+        LoxCallable function = (LoxCallable) callee;
+        if (args.length != function.arity()) {
+            throw new ScriptException("Expected " + function.arity() +
+                    " arguments but got " + args.length + ".");
+        }
+        List<Object> arguments = new ArrayList<>(args.length);
+        for (Object arg : args) {
+            arguments.add(LoxBindings.toLox(arg));
+        }
+
+        LoxBindings bindings = bindingsFor(scope);
+        bindings.out.target = context.getWriter();
+        try {
+            return LoxBindings.toJava(function.call(bindings.interpreter, arguments));
+        } catch (RuntimeError error) {
+            throw scriptException(error);
+        } finally {
+            bindings.interpreter.out.flush();
+            bindings.out.target = null;
+        }
+    }
+
+    // Lox has no classes yet, so there are no objects to call methods on.
+    @Override
+    public Object invokeMethod(Object thiz, String name, Object... args) {
+        throw new IllegalArgumentException("Lox values have no methods.");
+    }
+
+    // Each method of the interface calls the global function of that name.
+    @Override
+    public <T> T getInterface(Class<T> type) {
+        if (type == null || !type.isInterface()) {
+            throw new IllegalArgumentException("Not an interface: " + type);
+        }
+        Bindings scope = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        for (Method method : type.getMethods()) {
+            if (Modifier.isAbstract(method.getModifiers())
+                    && !(scope.get(method.getName()) instanceof LoxCallable)) {
+                return null;
+            }
+        }
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (self, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        switch (method.getName()) {
+                            case "equals": return self == args[0];
+                            case "hashCode": return System.identityHashCode(self);
+                            default: return "<lox " + type.getName() + ">";
+                        }
+                    }
+                    Object result = invokeFunction(method.getName(),
+                            args == null ? new Object[0] : args);
+                    return convert(result, method.getReturnType());
+                });
+        return type.cast(proxy);
+    }
+
+    @Override
+    public <T> T getInterface(Object thiz, Class<T> type) {
+        throw new IllegalArgumentException("Lox values have no methods.");
+    }
+
+    // Lox numbers are doubles; narrow them for interface methods.
+    private static Object convert(Object value, Class<?> type) {
+        if (!(value instanceof Double)) return value;
+        double number = (Double) value;
+        if (type == int.class || type == Integer.class) return (int) number;
+        if (type == long.class || type == Long.class) return (long) number;
+        if (type == float.class || type == Float.class) return (float) number;
+        if (type == short.class || type == Short.class) return (short) number;
+        if (type == byte.class || type == Byte.class) return (byte) number;
+        return value;
+    }
+
+    private static String read(Reader reader) throws ScriptException {
+        StringBuilder source = new StringBuilder();
+        char[] buffer = new char[8192];
+        try {
+            for (int n; (n = reader.read(buffer)) != -1; ) {
+                source.append(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            throw new ScriptException(e);
+        }
+        return source.toString();
+    }
+}
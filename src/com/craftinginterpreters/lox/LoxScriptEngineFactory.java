@@ -0,0 +1,96 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+/*
+ * Registered in META-INF/services, so new ScriptEngineManager()
+ * .getEngineByName("lox") finds jlox on the class path.
+ */
+public class LoxScriptEngineFactory implements ScriptEngineFactory {
+
+    private static final List<String> NAMES = List.of("lox", "jlox", "Lox");
+    private static final List<String> EXTENSIONS = List.of("lox");
+    private static final List<String> MIME_TYPES = List.of("application/x-lox");
+
+    @Override
+    public String getEngineName() {
+        return "jlox";
+    }
+
+    @Override
+    public String getEngineVersion() {
+        return Constants.VERSION;
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return EXTENSIONS;
+    }
+
+    @Override
+    public List<String> getMimeTypes() {
+        return MIME_TYPES;
+    }
+
+    @Override
+    public List<String> getNames() {
+        return NAMES;
+    }
+
+    @Override
+    public String getLanguageName() {
+        return "Lox";
+    }
+
+    @Override
+    public String getLanguageVersion() {
+        return "1";
+    }
+
+    @Override
+    public Object getParameter(String key) {
+        if (key == null) return null;
+        switch (key) {
+            case ScriptEngine.ENGINE: return getEngineName();
+            case ScriptEngine.ENGINE_VERSION: return getEngineVersion();
+            case ScriptEngine.NAME: return NAMES.get(0);
+            case ScriptEngine.LANGUAGE: return getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION: return getLanguageVersion();
+            // Scripts may run on several threads at once: compiled programs
+            // are only read, and lazy bodies are parsed under a lock. Each
+            // bindings is its own interpreter, so scripts sharing one see
+            // each other's globals, unsynchronized.
+            case "THREADING": return "MULTITHREADED";
+            default: return null;
+        }
+    }
+
+    // Lox has no methods, so this is a plain call of the function m.
+    @Override
+    public String getMethodCallSyntax(String obj, String m, String... args) {
+        return m + "(" + String.join(", ", args) + ")";
+    }
+
+    @Override
+    public String getOutputStatement(String toDisplay) {
+        return "print \"" + toDisplay + "\";";
+    }
+
+    @Override
+    public String getProgram(String... statements) {
+        StringBuilder program = new StringBuilder();
+        for (String statement : statements) {
+            program.append(statement);
+            if (!statement.endsWith(";") && !statement.endsWith("}")) program.append(';');
+            program.append('\n');
+        }
+        return program.toString();
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new LoxScriptEngine(this);
+    }
+}
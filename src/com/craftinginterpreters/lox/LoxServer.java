@@ -0,0 +1,223 @@
+package com.craftinginterpreters.lox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Long-lived process that runs scripts sent over a Unix domain socket, so
+ * they run on a JVM that is already started and warmed up.
+ *
+ * A request is a kind byte (REQUEST_PATH or REQUEST_SOURCE) followed by a
+ * string: the absolute path of a script, or its source. The response is a
+ * stream of frames: STDOUT and STDERR frames carry output as it is
+ * printed, and a final EXIT frame carries the exit status (0, 65 or 70).
+ * Strings and frame payloads are an int length and that many UTF-8 bytes.
+ *
+ * Every request runs in its own LoxContext on a worker pool. Compiled
+ * programs are kept in an LRU cache keyed by the source hash.
+ */
+class LoxServer {
+
+    static final byte REQUEST_PATH = 'P';
+    static final byte REQUEST_SOURCE = 'S';
+    static final byte STDOUT = 'O';
+    static final byte STDERR = 'E';
+    static final byte EXIT = 'X';
+
+    private static final int CACHE_SIZE = 256;
+
+    private final LoxRuntime runtime;
+    private final boolean lazy;
+    private final Path socket;
+    private final Limits limits;
+    private final ExecutorService workers = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors());
+
+    private final Map<String, Program> programs =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Program> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    // limits apply to every request on its own.
+    LoxServer(LoxRuntime runtime, boolean lazy, Path socket, Limits limits) {
+        this.runtime = runtime;
+        this.lazy = lazy;
+        this.socket = socket;
+        this.limits = limits;
+    }
+
+    static Path defaultSocket() {
+        String path = System.getenv("LOX_SOCKET");
+        if (path != null) return Paths.get(path);
+        return Paths.get("/tmp", "jlox-" + System.getProperty("user.name") + ".sock");
+    }
+
+    void serve() throws IOException {
+        if (Files.exists(socket)) {
+            if (isListening(socket)) {
+                throw new IOException("A server is already listening on " + socket);
+            }
+            Files.delete(socket);
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException e) {
+                    // Removed as stale by the next server.
+                }
+            }));
+            System.err.println("jlox server listening on " + socket);
+            LoxEvents.listen();
+
+            for (;;) {
+                SocketChannel client = server.accept();
+                workers.execute(() -> handle(client));
+            }
+        }
+    }
+
+    private static boolean isListening(Path socket) {
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try (client) {
+            DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(client));
+
+            byte kind = in.readByte();
+            String text = readString(in);
+
+            PrintStream stdout = new PrintStream(new FrameStream(out, STDOUT), true,
+                    StandardCharsets.UTF_8);
+            PrintStream stderr = new PrintStream(new FrameStream(out, STDERR), true,
+                    StandardCharsets.UTF_8);
+            int status;
+            if (kind == REQUEST_PATH) {
+                String source = read(Paths.get(text), stderr);
+                status = source == null ? 66 : run(source, stdout, stderr);
+            } else if (kind == REQUEST_SOURCE) {
+                status = run(text, stdout, stderr);
+            } else {
+                stderr.println("Unknown request kind: " + kind);
+                status = 64;
+            }
+            stdout.flush();
+            stderr.flush();
+            synchronized (out) {
+                out.writeByte(EXIT);
+                out.writeInt(status);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The client went away; nothing to report to.
+        }
+    }
+
+    // The script at path, or null once stderr has been told why it cannot
+    // be read; failing here is the script's problem, not the connection's.
+    private static String read(Path path, PrintStream stderr) {
+        try {
+            return new String(Files.readAllBytes(path), Charset.defaultCharset());
+        } catch (IOException e) {
+            stderr.println("Could not read " + path + ": " + e);
+            return null;
+        }
+    }
+
+    private int run(String source, PrintStream stdout, PrintStream stderr) {
+        String key = HexFormat.of().formatHex(ProgramCache.key(source, lazy));
+        Program program;
+        synchronized (programs) {
+            program = programs.get(key);
+        }
+        if (program != null) {
+            Metrics.CACHE_HITS.increment("server");
+        } else {
+            Metrics.CACHE_MISSES.increment("server");
+            program = runtime.compile(source, stderr);
+            if (program == null) return 65;
+            synchronized (programs) {
+                programs.put(key, program);
+            }
+        }
+        LoxContext context = runtime.newContext(stdout, stderr);
+        limits.apply(context);
+        return context.run(program);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // Sends everything written to it as frames of one type. Both streams
+    // of a request share out, and a script may print from several threads
+    // (spawn, parMap), so each frame is written while holding out.
+    private static class FrameStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte type;
+
+        FrameStream(DataOutputStream out, byte type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (out) {
+                out.writeByte(type);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * Process-wide counters and latency histograms for long-running embedded
+ * and server use (--metrics port, or LoxRuntime.serveMetrics). start()
+ * serves them in the Prometheus text format at
+ * http://127.0.0.1:port/metrics and registers them as the MBean
+ * com.craftinginterpreters.lox:type=Metrics.
+ *
+ * Counters are LongAdders, which stripe increments over cells so threads
+ * running scripts side by side do not contend on one word. Until start()
+ * is called nothing is counted: every update first checks enabled, a plain
+ * field that is set once before any script runs. Calls and environments
+ * are counted in the LoxEvents hooks, which the interpreters only run
+ * while a recording or the metrics want them, so those add nothing to
+ * calls and scopes while metrics are off. Rates such as calls per second
+ * are left to the scraper, e.g. rate(lox_calls_total[1m]).
+ */
+final class Metrics {
+
+    static boolean enabled = false;
+
+    private static final List<Metric> registry = new ArrayList<>();
+
+    static final Counter SCRIPTS = register(new Counter("lox_scripts_total",
+            "Programs run by a context."));
+    static final Counter CALLS = register(new Counter("lox_calls_total",
+            "Calls of Lox functions and natives."));
+    static final Counter ENVIRONMENTS = register(new Counter("lox_environments_total",
+            "Environments and flat mode frames created."));
+    static final Labeled ERRORS = register(new Labeled("lox_runtime_errors_total",
+            "Runtime errors by message.", "message"));
+    static final Labeled CACHE_HITS = register(new Labeled("lox_cache_hits_total",
+            "Compiled programs found in a cache.", "cache"));
+    static final Labeled CACHE_MISSES = register(new Labeled("lox_cache_misses_total",
+            "Compiled programs looked for in a cache and not found.", "cache"));
+    static final Histogram PARSE = register(new Histogram("lox_parse_seconds",
+            "Time to parse the tokens of a program."));
+    static final Histogram RESOLVE = register(new Histogram("lox_resolve_seconds",
+            "Time to resolve a parsed program."));
+    static final Histogram EXECUTE = register(new Histogram("lox_execute_seconds",
+            "Time to run a program."));
+
+    private static <T extends Metric> T register(T metric) {
+        registry.add(metric);
+        return metric;
+    }
+
+    private abstract static class Metric {
+        final String name;
+        final String help;
+
+        Metric(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        abstract String type();
+
+        abstract void write(StringBuilder out);
+
+        // Values for the MBean, by attribute name.
+        abstract void attributes(Map<String, Long> out);
+    }
+
+    static final class Counter extends Metric {
+        private final LongAdder value = new LongAdder();
+
+        Counter(String name, String help) {
+            super(name, help);
+        }
+
+        void increment() {
+            if (enabled) value.increment();
+        }
+
+        @Override
+        String type() {
+            return "counter";
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            out.append(name).append(' ').append(value.sum()).append('\n');
+        }
+
+        @Override
+        void attributes(Map<String, Long> out) {
+            out.put(name, value.sum());
+        }
+    }
+
+    // A counter per label value. Error messages name variables, so there
+    // can be any number of values; past LABELS they all count as "other".
+    static final class Labeled extends Metric {
+        private static final int LABELS = 100;
+
+        private final String label;
+        private final Map<String, LongAdder> values = new ConcurrentHashMap<>();
+
+        Labeled(String name, String help, String label) {
+            super(name, help);
+            this.label = label;
+        }
+
+        void increment(String value) {
+            if (!enabled) return;
+            LongAdder adder = values.get(value);
+            if (adder == null) {
+                if (values.size() >= LABELS) value = "other";
+                adder = values.computeIfAbsent(value, key -> new LongAdder());
+            }
+            adder.increment();
+        }
+
+        @Override
+        String type() {
+            return "counter";
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            values.forEach((value, adder) -> out.append(name).append('{').append(label)
+                    .append("=\"").append(escape(value)).append("\"} ")
+                    .append(adder.sum()).append('\n'));
+        }
+
+        @Override
+        void attributes(Map<String, Long> out) {
+            values.forEach((value, adder) -> out.put(name + "." + value, adder.sum()));
+        }
+    }
+
+    // Durations in buckets whose upper bounds roughly double from 10
+    // microseconds to 10 seconds.
+    static final class Histogram extends Metric {
+        private static final double[] BOUNDS = {
+                0.00001, 0.000025, 0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025,
+                0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+        private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        Histogram(String name, String help) {
+            super(name, help);
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long durationNanos) {
+            if (!enabled) return;
+            double seconds = durationNanos / 1e9;
+            int bucket = 0;
+            while (bucket < BOUNDS.length && seconds > BOUNDS[bucket]) bucket++;
+            buckets[bucket].increment();
+            count.increment();
+            nanos.add(durationNanos);
+        }
+
+        @Override
+        String type() {
+            return "histogram";
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                String bound = i < BOUNDS.length ? Double.toString(BOUNDS[i]) : "+Inf";
+                out.append(name).append("_bucket{le=\"").append(bound).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            out.append(name).append("_sum ").append(nanos.sum() / 1e9).append('\n');
+            out.append(name).append("_count ").append(count.sum()).append('\n');
+        }
+
+        @Override
+        void attributes(Map<String, Long> out) {
+            out.put(name + "_count", count.sum());
+            out.put(name + "_sum_nanos", nanos.sum());
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    static String prometheus() {
+        StringBuilder out = new StringBuilder();
+        for (Metric metric : registry) {
+            out.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+            out.append("# TYPE ").append(metric.name).append(' ').append(metric.type()).append('\n');
+            metric.write(out);
+        }
+        return out.toString();
+    }
+
+    private static Map<String, Long> attributes() {
+        Map<String, Long> out = new LinkedHashMap<>();
+        for (Metric metric : registry) {
+            metric.attributes(out);
+        }
+        return out;
+    }
+
+    // Starts counting, serves /metrics on the loopback interface and
+    // registers the MBean. A process serving metrics lives long enough for
+    // a JFR recording to be started later, so it listens for those too.
+    static void start(int port) throws IOException {
+        enabled = true;
+        LoxEvents.update();
+        LoxEvents.listen();
+
+        HttpServer server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = prometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        // The dispatcher thread takes after the thread that starts it, and
+        // must not keep the JVM alive once the script is done.
+        Thread starter = new Thread(server::start);
+        starter.setDaemon(true);
+        starter.start();
+        try {
+            starter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(),
+                    new ObjectName("com.craftinginterpreters.lox:type=Metrics"));
+        } catch (JMException e) {
+            throw new IOException("Could not register the metrics MBean", e);
+        }
+    }
+
+    // Read-only attributes, one per counter and per histogram count and sum.
+    private static final class Bean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String name) throws AttributeNotFoundException {
+            Long value = attributes().get(name);
+            if (value == null) throw new AttributeNotFoundException(name);
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            Map<String, Long> values = attributes();
+            AttributeList list = new AttributeList();
+            for (String name : names) {
+                if (values.containsKey(name)) list.add(new Attribute(name, values.get(name)));
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only.");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature)
+                throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(action),
+                    "Metrics have no operations.");
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> infos = new ArrayList<>();
+            for (String name : attributes().keySet()) {
+                infos.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Lox interpreter metrics",
+                    infos.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.craftinginterpreters.lox;
+
+/*
+ * Base class for functions implemented in Java. A native reports errors
+ * by throwing a RuntimeError without a token; the call expression that
+ * invoked it supplies the location.
+ */
+abstract class Native implements LoxCallable {
+    private final String name;
+    private final int arity;
+
+    Native(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fun " + name + ">";
+    }
+}
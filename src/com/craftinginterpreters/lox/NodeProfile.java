@@ -0,0 +1,118 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Counts how often every Expr and Stmt node runs and how long it takes
+ * (--node-profile file.dot). A ProfiledInterpreter does the counting, so
+ * the interpreters that run without a profile never check for one. It
+ * runs the tree in switch mode too; flat mode no longer runs the nodes.
+ *
+ * Each interpreter, forks included, records into its own Counts without
+ * locking: per node the number of runs, the time spent in it and its
+ * children, and the time spent in it alone. Times are measured around
+ * every node with System.nanoTime(), so they are inflated by the
+ * measuring itself and best compared with one another. Nodes that never
+ * ran have no entry at all.
+ *
+ * finish() merges the counts and writes the programs that ran as a
+ * Graphviz graph with AstRenderer, each node labeled with its counts and
+ * filled the redder the more self time it took.
+ */
+final class NodeProfile {
+
+    static final int RUNS = 0;
+    static final int TOTAL_NANOS = 1;
+    static final int SELF_NANOS = 2;
+
+    final class Counts {
+        private final Map<Object, long[]> nodes = new IdentityHashMap<>();
+        // Time spent in the children of each node being run, innermost
+        // last.
+        private long[] children = new long[64];
+        private int depth = 0;
+
+        // Returns the time the node starts at, for exit().
+        long enter() {
+            if (++depth == children.length) {
+                long[] more = new long[depth * 2];
+                System.arraycopy(children, 0, more, 0, depth);
+                children = more;
+            }
+            children[depth] = 0;
+            return System.nanoTime();
+        }
+
+        void exit(Object node, long start) {
+            long elapsed = System.nanoTime() - start;
+            long[] counts = nodes.get(node);
+            if (counts == null) {
+                counts = new long[3];
+                nodes.put(node, counts);
+            }
+            counts[RUNS]++;
+            counts[TOTAL_NANOS] += elapsed;
+            counts[SELF_NANOS] += elapsed - children[depth];
+            children[--depth] += elapsed;
+        }
+
+        NodeProfile profile() {
+            return NodeProfile.this;
+        }
+    }
+
+    private final List<Counts> all = new ArrayList<>();
+    // Every program run, in order, for the graph.
+    private final List<List<Stmt>> programs = new ArrayList<>();
+
+    // Counts for one more interpreter.
+    synchronized Counts counts() {
+        Counts counts = new Counts();
+        all.add(counts);
+        return counts;
+    }
+
+    synchronized void ran(List<Stmt> program) {
+        for (List<Stmt> seen : programs) {
+            if (seen == program) return;
+        }
+        programs.add(program);
+    }
+
+    // The counts of all interpreters added up.
+    synchronized Map<Object, long[]> merged() {
+        Map<Object, long[]> merged = new IdentityHashMap<>();
+        for (Counts counts : all) {
+            counts.nodes.forEach((node, values) -> {
+                long[] sum = merged.computeIfAbsent(node, key -> new long[3]);
+                for (int i = 0; i < sum.length; i++) {
+                    sum[i] += values[i];
+                }
+            });
+        }
+        return merged;
+    }
+
+    // Writes the programs that ran, annotated with the counts, to file.
+    void finish(Path file, PrintStream report) {
+        Map<Object, long[]> counts = merged();
+        List<List<Stmt>> ran;
+        synchronized (this) {
+            ran = new ArrayList<>(programs);
+        }
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            new AstRenderer(out, counts).render(ran);
+        } catch (IOException e) {
+            report.println("Could not write node profile to " + file + ": " + e.getMessage());
+        }
+    }
+}
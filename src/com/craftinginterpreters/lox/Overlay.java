@@ -0,0 +1,82 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/*
+ * The writes one forked interpreter made to frozen environments. Lookups
+ * fall back to the parent overlay, which belongs to the interpreter the
+ * fork was made from and no longer changes, and then to the frozen
+ * environment itself.
+ */
+class Overlay {
+
+    // Longer chains are merged into one overlay when shared, so lookups
+    // stay short when a loop keeps forking.
+    private static final int MAX_DEPTH = 8;
+
+    final Overlay parent;
+    private final int depth;
+    private final Map<Environment, Map<String, Object>> writes = new IdentityHashMap<>();
+
+    Overlay(Overlay parent) {
+        this.parent = parent;
+        this.depth = parent == null ? 1 : parent.depth + 1;
+    }
+
+    boolean isEmpty() {
+        return writes.isEmpty();
+    }
+
+    Map<String, Object> holder(Environment environment, String name) {
+        for (Overlay overlay = this; overlay != null; overlay = overlay.parent) {
+            Map<String, Object> values = overlay.writes.get(environment);
+            if (values != null && values.containsKey(name)) return values;
+        }
+        return null;
+    }
+
+    // What this overlay itself, not its parents, wrote to environment.
+    Map<String, Object> written(Environment environment) {
+        return writes.getOrDefault(environment, Map.of());
+    }
+
+    // Everything this overlay and its parents wrote to environment, the
+    // latest write of each name winning.
+    Map<String, Object> writes(Environment environment) {
+        Map<String, Object> values = parent == null ? new HashMap<>() : parent.writes(environment);
+        values.putAll(written(environment));
+        return values;
+    }
+
+    void write(Environment environment, String name, Object value) {
+        writes.computeIfAbsent(environment, e -> new HashMap<>()).put(name, value);
+    }
+
+    // An overlay with the same contents that never changes again, to be
+    // the parent of the overlays on both sides of a fork.
+    Overlay share() {
+        if (writes.isEmpty()) return parent;
+        freeze();
+        if (depth < MAX_DEPTH) return this;
+        Overlay merged = new Overlay(null);
+        merged.merge(this);
+        return merged;
+    }
+
+    private void merge(Overlay from) {
+        if (from.parent != null) merge(from.parent);
+        from.writes.forEach((environment, values) ->
+                writes.computeIfAbsent(environment, e -> new HashMap<>()).putAll(values));
+    }
+
+    // Freezes what the written values can reach.
+    private void freeze() {
+        for (Map<String, Object> values : writes.values()) {
+            for (Object value : values.values()) {
+                if (value instanceof LoxFun) ((LoxFun) value).closure().freeze();
+            }
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * Data-parallel natives on the pool that spawn() uses:
+ *
+ *   parMap(fn, n)                     a list of fn(x) for each x of n
+ *   parReduce(fn, combine, n, init)   combine(...combine(init, fn(x))...)
+ *
+ * n is either a count, meaning the indices 0 to n - 1, or a list. fn
+ * should be pure: it runs on several threads at once, each in its own
+ * fork of the calling interpreter, and whatever it writes is dropped when
+ * the call returns. combine must be associative with init as its
+ * identity, because every chunk is reduced from init and the chunk
+ * results are then combined in order.
+ *
+ * The range is split adaptively: a task keeps splitting off halves for
+ * other workers only while the pool has few queued tasks, so chunks are
+ * small when threads are idle and large when they are all busy.
+ */
+class Parallel {
+
+    // Queued tasks a worker tolerates before it stops splitting.
+    private static final int SURPLUS = 3;
+
+    static void define(Environment globals) {
+        globals.define("parMap", new Native("parMap", 2) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                LoxFun function = function(arguments.get(0), 1, "parMap");
+                Input input = input(arguments.get(1));
+                interpreter.allocate(Quota.LISTS, Quota.LIST_BYTES +
+                        (long) Quota.REFERENCE_BYTES * input.size, null);
+                Object[] results = new Object[input.size];
+                Workers workers = new Workers(interpreter, function);
+                Concurrency.POOL.invoke(new Apply(0, input.size, workers, function, input, results));
+                return new LoxList(results);
+            }
+        });
+
+        globals.define("parReduce", new Native("parReduce", 4) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                LoxFun function = function(arguments.get(0), 1, "parReduce");
+                LoxFun combine = function(arguments.get(1), 2, "parReduce");
+                Input input = input(arguments.get(2));
+                Object init = Concurrency.shareable(arguments.get(3), "parReduce can only start from");
+                combine.closure().freeze();
+                Workers workers = new Workers(interpreter, function);
+                return Concurrency.POOL.invoke(new Reduce(0, input.size, workers,
+                        function, combine, input, init));
+            }
+        });
+    }
+
+    private static LoxFun function(Object value, int arity, String name) {
+        // Flat mode closures keep locals in frames, which forks cannot
+        // share.
+        if (!(value instanceof LoxFun) || ((LoxFun) value).arity() != arity) {
+            throw new RuntimeError(name + " needs a function of " + arity +
+                    (arity == 1 ? " parameter." : " parameters."));
+        }
+        return (LoxFun) value;
+    }
+
+    private static Object apply(Interpreter worker, LoxFun function, Object... arguments) {
+        try {
+            return Concurrency.shareable(function.call(worker, Arrays.asList(arguments)),
+                    "Parallel functions can only return");
+        } finally {
+            // Workers are reused across calls; none may see what an
+            // earlier one wrote.
+            if (!worker.overlay.isEmpty()) worker.overlay = new Overlay(worker.overlay.parent);
+        }
+    }
+
+    private static final class Input {
+        final int size;
+        final LoxList list;
+
+        Input(int size, LoxList list) {
+            this.size = size;
+            this.list = list;
+        }
+
+        Object get(int i) {
+            return list == null ? (double) i : list.elements[i];
+        }
+    }
+
+    private static Input input(Object value) {
+        if (value instanceof LoxList) {
+            LoxList list = (LoxList) value;
+            return new Input(list.elements.length, list);
+        }
+        if (value instanceof Double && (double) value >= 0
+                && (double) value == Math.floor((double) value)) {
+            return new Input((int) (double) value, null);
+        }
+        throw new RuntimeError("Expected a count or a list.");
+    }
+
+    // Forks of the calling interpreter, one per thread working at a time.
+    private static final class Workers {
+        private final Interpreter parent;
+        private final Queue<Interpreter> idle = new ConcurrentLinkedQueue<>();
+
+        Workers(Interpreter parent, LoxFun function) {
+            this.parent = parent;
+            function.closure().freeze();
+            idle.add(parent.fork(parent.out, parent.reporter));
+        }
+
+        // The parent waits for the pool meanwhile, and after the first fork
+        // further forks only swap in an empty overlay.
+        Interpreter acquire() {
+            Interpreter worker = idle.poll();
+            if (worker != null) return worker;
+            synchronized (this) {
+                return parent.fork(parent.out, parent.reporter);
+            }
+        }
+
+        void release(Interpreter worker) {
+            idle.add(worker);
+        }
+    }
+
+    private abstract static class Chunk extends RecursiveTask<Object> {
+        private final int from;
+        private final int to;
+
+        Chunk(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        abstract Object leaf(Interpreter worker, int from, int to);
+
+        abstract Chunk split(int from, int to);
+
+        abstract Workers workers();
+
+        // Joins the results of two neighbouring chunks.
+        Object combine(Interpreter worker, Object left, Object right) {
+            return null;
+        }
+
+        @Override
+        protected Object compute() {
+            int end = to;
+            List<Chunk> forked = new ArrayList<>();
+            while (end - from > 1 && getSurplusQueuedTaskCount() <= SURPLUS) {
+                int middle = (from + end) >>> 1;
+                Chunk right = split(middle, end);
+                right.fork();
+                forked.add(right);
+                end = middle;
+            }
+
+            Workers workers = workers();
+            Interpreter worker = workers.acquire();
+            Object result;
+            try {
+                result = leaf(worker, from, end);
+            } finally {
+                workers.release(worker);
+            }
+
+            // Nearest half first, so results combine in order.
+            for (int i = forked.size() - 1; i >= 0; i--) {
+                Object right = forked.get(i).join();
+                worker = workers.acquire();
+                try {
+                    result = combine(worker, result, right);
+                } finally {
+                    workers.release(worker);
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final class Apply extends Chunk {
+        private final Workers workers;
+        private final LoxFun function;
+        private final Input input;
+        private final Object[] results;
+
+        Apply(int from, int to, Workers workers, LoxFun function, Input input,
+              Object[] results) {
+            super(from, to);
+            this.workers = workers;
+            this.function = function;
+            this.input = input;
+            this.results = results;
+        }
+
+        @Override
+        Object leaf(Interpreter worker, int from, int to) {
+            for (int i = from; i < to; i++) {
+                results[i] = apply(worker, function, input.get(i));
+            }
+            return null;
+        }
+
+        @Override
+        Chunk split(int from, int to) {
+            return new Apply(from, to, workers, function, input, results);
+        }
+
+        @Override
+        Workers workers() {
+            return workers;
+        }
+    }
+
+    private static final class Reduce extends Chunk {
+        private final Workers workers;
+        private final LoxFun function;
+        private final LoxFun combine;
+        private final Input input;
+        private final Object init;
+
+        Reduce(int from, int to, Workers workers, LoxFun function, LoxFun combine,
+               Input input, Object init) {
+            super(from, to);
+            this.workers = workers;
+            this.function = function;
+            this.combine = combine;
+            this.input = input;
+            this.init = init;
+        }
+
+        @Override
+        Object leaf(Interpreter worker, int from, int to) {
+            Object result = init;
+            for (int i = from; i < to; i++) {
+                result = apply(worker, combine, result, apply(worker, function, input.get(i)));
+            }
+            return result;
+        }
+
+        @Override
+        Chunk split(int from, int to) {
+            return new Reduce(from, to, workers, function, combine, input, init);
+        }
+
+        @Override
+        Workers workers() {
+            return workers;
+        }
+
+        @Override
+        Object combine(Interpreter worker, Object left, Object right) {
+            return apply(worker, combine, left, right);
+        }
+    }
+}
@@ -64,10 +64,19 @@ public class Parser {
     private static class ParseError extends RuntimeException {}
 
     private final List<Token> tokens;
+    private final boolean lazy;
+    private final ErrorReporter reporter;
     private int current;
 
-    Parser(List<Token> tokens) {
+    Parser(List<Token> tokens, ErrorReporter reporter) {
+        this(tokens, false, reporter);
+    }
+
+    // In lazy mode function bodies are only pre-parsed; see FunBody.
+    Parser(List<Token> tokens, boolean lazy, ErrorReporter reporter) {
         this.tokens = tokens;
+        this.lazy = lazy;
+        this.reporter = reporter;
     }
 
     List<Stmt> parse() {
@@ -78,6 +87,13 @@ public class Parser {
         }
     }
 
+    // Parses the statements of a lazy function body whose '{' ends just
+    // before start.
+    List<Stmt> body(int start) {
+        current = start;
+        return block().statements;
+    }
+
     List<Stmt> program() {
         List<Stmt> statements = new ArrayList<>();
         while(!isAtEnd()) {
@@ -87,15 +103,16 @@ public class Parser {
     }
 
     private Stmt declaration() {
+        int line = peek().line;
         try {
             if(match(FUN)) {
-                return funDecl("function");
+                return at(line, funDecl("function"));
             }
             if (match(VAR)) {
-                return varDecl();
+                return at(line, varDecl());
             }
             if (match(CLASS)){
-                return classDecl();
+                return at(line, classDecl());
             }
             return statement();
         } catch (ParseError error) {
@@ -117,7 +134,7 @@ public class Parser {
     private Stmt.Fun funDecl(String type) {
         Token fun = consume(IDENTIFIER, "Expect " + type + " name (identifier)");
         Expr.InlineFun fe = inlineFun();
-        return new Stmt.Fun(fun, fe.parameters, fe.statements);
+        return new Stmt.Fun(fun, fe.parameters, fe.body);
     }
 
     private Expr.InlineFun inlineFun() {
@@ -130,8 +147,19 @@ public class Parser {
         }
         consume(RIGHT_PAREN, "Expect ')'");
         consume(LEFT_BRACE, "Expect '{'");
-        Stmt.Block body = block();
-        return new Expr.InlineFun(parameters, body.statements);
+        return new Expr.InlineFun(parameters, funBody(parameters));
+    }
+
+    private FunBody funBody(List<Token> parameters) {
+        if (lazy) {
+            int end = new PreParser(tokens, current).body(parameters);
+            if (end != -1) {
+                FunBody body = new FunBody(tokens, current);
+                current = end;
+                return body;
+            }
+        }
+        return new FunBody(block().statements);
     }
 
     private Stmt varDecl() {
@@ -146,13 +174,21 @@ public class Parser {
 
 
     Stmt statement() {
-        if(match(IF)) return ifStmt();
-        if(match(PRINT)) return printStmt();
-        if(match(WHILE)) return whileStmt();
-        if(match(FOR)) return forStmt();
-        if(match(LEFT_BRACE)) return block();
-        if(match(RETURN)) return returnStmt();
-        return expressionStmt();
+        int line = peek().line;
+        if(match(IF)) return at(line, ifStmt());
+        if(match(PRINT)) return at(line, printStmt());
+        if(match(WHILE)) return at(line, whileStmt());
+        if(match(FOR)) return at(line, forStmt());
+        if(match(LEFT_BRACE)) return at(line, block());
+        if(match(RETURN)) return at(line, returnStmt());
+        return at(line, expressionStmt());
+    }
+
+    // Records the line a statement starts on, for instruments; statements
+    // the parser makes up take the line of what they stand for.
+    private static <T extends Stmt> T at(int line, T stmt) {
+        if (stmt != null && stmt.line == 0) stmt.line = line;
+        return stmt;
     }
 
     private Stmt returnStmt() {
@@ -166,15 +202,16 @@ public class Parser {
     }
 
     private Stmt forStmt() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expected '(' after for.");
         Stmt initializer;
         if (match(SEMICOLON)) {
             initializer = null;
         } else {
             if (match(VAR)) {
-                initializer = varDecl();
+                initializer = at(previous().line, varDecl());
             } else {
-                initializer = expressionStmt();
+                initializer = at(peek().line, expressionStmt());
             }
         }
 
@@ -195,29 +232,30 @@ public class Parser {
         }
         Stmt body = statement();
         if(increment != null) {
-            body = new Stmt.Block(Arrays.asList(
+            body = at(body.line, new Stmt.Block(Arrays.asList(
                     body,
-                    new Stmt.Expression(increment)));
+                    at(keyword.line, new Stmt.Expression(increment)))));
         }
         if(condition == null) {
             condition = new Expr.Literal(true);
         }
 
-        Stmt loop = new Stmt.While(condition, body);
+        Stmt loop = at(keyword.line, new Stmt.While(keyword, condition, body));
 
         if(initializer != null) {
-            loop = new Stmt.Block(Arrays.asList(initializer, loop));
+            loop = at(keyword.line, new Stmt.Block(Arrays.asList(initializer, loop)));
         }
 
         return loop;
     }
 
     Stmt whileStmt() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expected '(' after while.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expected ')' after while expression.");
         Stmt whileStmt = statement();
-        return new Stmt.While(condition, whileStmt);
+        return new Stmt.While(keyword, condition, whileStmt);
     }
 
     Stmt ifStmt() {
@@ -358,7 +396,7 @@ public class Parser {
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        reporter.error(token, message);
         return new ParseError();
     }
 
@@ -0,0 +1,273 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+/*
+ * Recognizer for function bodies in lazy mode. It follows the grammar of
+ * the Parser without building any nodes and answers where the body ends,
+ * or -1 when the body has an error. On -1 the Parser parses the body
+ * eagerly, so errors are still reported (and recovered from) exactly the
+ * way they are without lazy mode.
+ *
+ * Besides syntax it tracks declarations per scope the way the Resolver
+ * does, so the scope errors the Resolver reports at load time are not
+ * deferred to the first call either.
+ */
+class PreParser {
+
+    private static class Invalid extends RuntimeException {
+        Invalid() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final List<Token> tokens;
+    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private int current;
+
+    PreParser(List<Token> tokens, int start) {
+        this.tokens = tokens;
+        this.current = start;
+    }
+
+    // Expects the opening '{' to be consumed already. Returns the index
+    // just past the closing '}'.
+    int body(List<Token> parameters) {
+        try {
+            beginScope();
+            for (Token param : parameters) {
+                declare(param);
+            }
+            blockRest();
+            return current;
+        } catch (Invalid invalid) {
+            return -1;
+        }
+    }
+
+    private void blockRest() {
+        while (!check(RIGHT_BRACE) && !isAtEnd()) {
+            declaration();
+        }
+        consume(RIGHT_BRACE);
+    }
+
+    private void declaration() {
+        if (match(FUN)) {
+            declare(consume(IDENTIFIER));
+            inlineFun();
+            return;
+        }
+        if (match(VAR)) {
+            varDecl();
+            return;
+        }
+        // Class declarations are left to the Parser.
+        if (check(CLASS)) throw new Invalid();
+        statement();
+    }
+
+    private void inlineFun() {
+        consume(LEFT_PAREN);
+        beginScope();
+        if (check(IDENTIFIER)) {
+            do {
+                declare(consume(IDENTIFIER));
+            } while (match(COMMA));
+        }
+        consume(RIGHT_PAREN);
+        consume(LEFT_BRACE);
+        blockRest();
+        scopes.pop();
+    }
+
+    private void varDecl() {
+        Token name = consume(IDENTIFIER);
+        if (scopes.peek().containsKey(name.lexeme)) throw new Invalid();
+        scopes.peek().put(name.lexeme, false);
+        if (match(EQUAL)) {
+            expression();
+        }
+        scopes.peek().put(name.lexeme, true);
+        consume(SEMICOLON);
+    }
+
+    private void statement() {
+        if (match(IF)) {
+            consume(LEFT_PAREN);
+            expression();
+            consume(RIGHT_PAREN);
+            statement();
+            if (match(ELSE)) statement();
+            return;
+        }
+        if (match(PRINT)) {
+            expression();
+            consume(SEMICOLON);
+            return;
+        }
+        if (match(WHILE)) {
+            consume(LEFT_PAREN);
+            expression();
+            consume(RIGHT_PAREN);
+            statement();
+            return;
+        }
+        if (match(FOR)) {
+            forStmt();
+            return;
+        }
+        if (match(LEFT_BRACE)) {
+            beginScope();
+            blockRest();
+            scopes.pop();
+            return;
+        }
+        if (match(RETURN)) {
+            if (!check(SEMICOLON)) expression();
+            consume(SEMICOLON);
+            return;
+        }
+        expression();
+        consume(SEMICOLON);
+    }
+
+    private void forStmt() {
+        consume(LEFT_PAREN);
+        // The Parser wraps an initializer and the loop in a block.
+        beginScope();
+        if (!match(SEMICOLON)) {
+            if (match(VAR)) {
+                varDecl();
+            } else {
+                expression();
+                consume(SEMICOLON);
+            }
+        }
+        if (!match(SEMICOLON)) {
+            expression();
+            consume(SEMICOLON);
+        }
+        if (!match(RIGHT_PAREN)) {
+            expression();
+            consume(RIGHT_PAREN);
+        }
+        statement();
+        scopes.pop();
+    }
+
+    // Each expression method returns whether what it recognized is a bare
+    // identifier, which is the only valid assignment target.
+    private boolean expression() {
+        boolean target = binary(0);
+        if (match(EQUAL)) {
+            if (!target) throw new Invalid();
+            expression();
+            return false;
+        }
+        return target;
+    }
+
+    private static final TokenType[][] LEVELS = {
+            {OR},
+            {AND},
+            {BANG_EQUAL, EQUAL_EQUAL},
+            {GREATER, GREATER_EQUAL, LESS, LESS_EQUAL},
+            {MINUS, PLUS},
+            {STAR, SLASH},
+    };
+
+    private boolean binary(int level) {
+        if (level == LEVELS.length) return unary();
+        boolean target = binary(level + 1);
+        while (match(LEVELS[level])) {
+            binary(level + 1);
+            target = false;
+        }
+        return target;
+    }
+
+    private boolean unary() {
+        if (match(MINUS, BANG)) {
+            unary();
+            return false;
+        }
+        boolean target = primary();
+        while (match(LEFT_PAREN)) {
+            int arguments = 0;
+            if (!check(RIGHT_PAREN)) {
+                do {
+                    if (arguments++ >= 255) throw new Invalid();
+                    expression();
+                } while (match(COMMA));
+            }
+            consume(RIGHT_PAREN);
+            target = false;
+        }
+        return target;
+    }
+
+    private boolean primary() {
+        if (match(NIL, TRUE, FALSE, NUMBER, STRING)) return false;
+        if (match(IDENTIFIER)) {
+            // A read of a variable in its own initializer; an assignment
+            // target is not a read.
+            if (!check(EQUAL) &&
+                    scopes.peek().get(previous().lexeme) == Boolean.FALSE) {
+                throw new Invalid();
+            }
+            return true;
+        }
+        if (match(LEFT_PAREN)) {
+            expression();
+            consume(RIGHT_PAREN);
+            return false;
+        }
+        if (match(FUN)) {
+            inlineFun();
+            return false;
+        }
+        throw new Invalid();
+    }
+
+    private void beginScope() {
+        scopes.push(new HashMap<>());
+    }
+
+    private void declare(Token name) {
+        if (scopes.peek().put(name.lexeme, true) != null) throw new Invalid();
+    }
+
+    private Token consume(TokenType type) {
+        if (!check(type)) throw new Invalid();
+        return tokens.get(current++);
+    }
+
+    private Token previous() {
+        return tokens.get(current - 1);
+    }
+
+    private boolean match(TokenType... types) {
+        for (TokenType type : types) {
+            if (check(type)) {
+                current++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean check(TokenType type) {
+        if (isAtEnd()) return false;
+        return tokens.get(current).type == type;
+    }
+
+    private boolean isAtEnd() {
+        return tokens.get(current).type == EOF;
+    }
+}
@@ -0,0 +1,50 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+
+/*
+ * The tree interpreter with every statement and expression counted and
+ * timed into a NodeProfile. Only contexts created with a profile use it;
+ * see of().
+ */
+final class ProfiledInterpreter extends Interpreter {
+
+    private final NodeProfile.Counts nodes;
+
+    private ProfiledInterpreter(PrintStream out, ErrorReporter reporter, NodeProfile profile) {
+        super(out, reporter);
+        this.nodes = profile.counts();
+    }
+
+    // Typed Interpreter so that verifying the caller, which every run
+    // does, does not load this class.
+    static Interpreter of(PrintStream out, ErrorReporter reporter, NodeProfile profile) {
+        return new ProfiledInterpreter(out, reporter, profile);
+    }
+
+    // Forks record into counts of their own.
+    @Override
+    Interpreter create(PrintStream out, ErrorReporter reporter) {
+        return new ProfiledInterpreter(out, reporter, nodes.profile());
+    }
+
+    @Override
+    void execute(Stmt stmt) {
+        long start = nodes.enter();
+        try {
+            super.execute(stmt);
+        } finally {
+            nodes.exit(stmt, start);
+        }
+    }
+
+    @Override
+    Object evaluate(Expr expr) {
+        long start = nodes.enter();
+        try {
+            return super.evaluate(expr);
+        } finally {
+            nodes.exit(expr, start);
+        }
+    }
+}
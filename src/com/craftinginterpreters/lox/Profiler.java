@@ -0,0 +1,194 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/*
+ * A sampling profiler for Lox code (--profile file).
+ *
+ * Every interpreter being profiled keeps a shadow stack of Lox frames: the
+ * function's name and the line it is at, as of its latest call or loop
+ * iteration. A daemon thread reads all the stacks every millisecond and
+ * counts each one it sees. The stacks are written and read without locks,
+ * so a sample may now and then mix two neighbouring moments; in exchange
+ * a call only costs a push and a pop.
+ *
+ * finish() writes the counts as collapsed stacks, one "frame;frame count"
+ * line per stack as flamegraph.pl and speedscope read them, and prints the
+ * hottest functions and lines.
+ */
+final class Profiler {
+
+    private static final long INTERVAL_NANOS = 1_000_000;
+    private static final int TOP = 10;
+
+    final class Stack {
+        String[] names = new String[64];
+        int[] lines = new int[64];
+        int depth = 0;
+
+        // Enters a function called from line of the current frame.
+        void enter(String name, int line) {
+            if (depth > 0) lines[depth - 1] = line;
+            if (depth == names.length) {
+                String[] moreNames = new String[depth * 2];
+                int[] moreLines = new int[depth * 2];
+                System.arraycopy(names, 0, moreNames, 0, depth);
+                System.arraycopy(lines, 0, moreLines, 0, depth);
+                // The sampler checks depth against both arrays it reads.
+                lines = moreLines;
+                names = moreNames;
+            }
+            names[depth] = name;
+            lines[depth] = 0;
+            depth++;
+        }
+
+        void exit() {
+            depth--;
+        }
+
+        Profiler profiler() {
+            return Profiler.this;
+        }
+
+        void line(int line) {
+            if (depth > 0) lines[depth - 1] = line;
+        }
+
+        private String sample() {
+            int top = depth;
+            String[] names = this.names;
+            int[] lines = this.lines;
+            if (top <= 0 || top > names.length || top > lines.length) return null;
+            StringBuilder key = new StringBuilder();
+            for (int i = 0; i < top; i++) {
+                String name = names[i];
+                if (name == null) return null;
+                if (i > 0) key.append(';');
+                key.append(name);
+                if (lines[i] > 0) key.append(':').append(lines[i]);
+            }
+            return key.toString();
+        }
+    }
+
+    private final Set<Stack> stacks = Collections.newSetFromMap(new WeakHashMap<>());
+    private final Map<String, Long> counts = new HashMap<>();
+    private final Thread sampler;
+    private volatile boolean running = true;
+
+    Profiler() {
+        sampler = new Thread(this::sample, "lox-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    // A stack for one more interpreter.
+    Stack stack() {
+        Stack stack = new Stack();
+        synchronized (stacks) {
+            stacks.add(stack);
+        }
+        return stack;
+    }
+
+    private void sample() {
+        List<Stack> current = new ArrayList<>();
+        while (running) {
+            long next = System.nanoTime() + INTERVAL_NANOS;
+            current.clear();
+            synchronized (stacks) {
+                current.addAll(stacks);
+            }
+            for (Stack stack : current) {
+                String key = stack.sample();
+                if (key == null) continue;
+                synchronized (counts) {
+                    counts.merge(key, 1L, Long::sum);
+                }
+            }
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Stops sampling, writes the collapsed stacks to file and prints the
+    // hottest functions and lines to report.
+    void finish(Path file, PrintStream report) {
+        running = false;
+        sampler.interrupt();
+        Map<String, Long> samples;
+        synchronized (counts) {
+            samples = new HashMap<>(counts);
+        }
+
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            List<String> keys = new ArrayList<>(samples.keySet());
+            Collections.sort(keys);
+            for (String key : keys) {
+                out.write(key + " " + samples.get(key) + "\n");
+            }
+        } catch (IOException e) {
+            report.println("Could not write profile to " + file + ": " + e.getMessage());
+        }
+
+        long total = 0;
+        Map<String, Long> self = new HashMap<>();
+        Map<String, Long> inclusive = new HashMap<>();
+        Map<String, Long> lines = new HashMap<>();
+        for (Map.Entry<String, Long> entry : samples.entrySet()) {
+            long count = entry.getValue();
+            total += count;
+            String[] frames = entry.getKey().split(";");
+            String leaf = frames[frames.length - 1];
+            lines.merge(leaf, count, Long::sum);
+            self.merge(function(leaf), count, Long::sum);
+            Set<String> seen = new HashSet<>();
+            for (String frame : frames) {
+                if (seen.add(function(frame))) inclusive.merge(function(frame), count, Long::sum);
+            }
+        }
+
+        report.println("Profile: " + total + " samples, collapsed stacks in " + file);
+        top(report, "Functions by self samples", self, total);
+        top(report, "Functions by total samples", inclusive, total);
+        top(report, "Lines by self samples", lines, total);
+    }
+
+    private static String function(String frame) {
+        int colon = frame.lastIndexOf(':');
+        return colon < 0 ? frame : frame.substring(0, colon);
+    }
+
+    private static void top(PrintStream report, String title, Map<String, Long> counts,
+                            long total) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        report.println();
+        report.println(title + ":");
+        for (int i = 0; i < Math.min(TOP, entries.size()); i++) {
+            Map.Entry<String, Long> entry = entries.get(i);
+            report.printf("  %6.2f%% %8d  %s%n", 100.0 * entry.getValue() / Math.max(1, total),
+                    entry.getValue(), entry.getKey());
+        }
+    }
+}
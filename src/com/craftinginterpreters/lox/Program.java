@@ -0,0 +1,20 @@
+package com.craftinginterpreters.lox;
+
+import java.io.Serializable;
+import java.util.List;
+
+/*
+ * A parsed and resolved script. The Resolver stores the depth of each
+ * local variable on its node, so a Program is self-contained and, once
+ * compiled, is only read: any number of LoxContexts may run it at the
+ * same time.
+ */
+public final class Program implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final List<Stmt> statements;
+
+    Program(List<Stmt> statements) {
+        this.statements = statements;
+    }
+}
@@ -0,0 +1,170 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.CRC32;
+
+/*
+ * Directory of resolved programs keyed by a hash of the source and the
+ * interpreter version.
+ *
+ * Entry layout: magic, format, key (32 bytes), payload length, CRC32 of
+ * the payload, then the serialized Program. An entry whose header, key or
+ * checksum does not match, or which no longer deserializes into the
+ * current classes, is deleted and rebuilt by the caller.
+ */
+class ProgramCache {
+
+    private static final int MAGIC = 0x4c4f5843; // "LOXC"
+    // Bump when the serialized form of the AST changes: its classes
+    // declare a fixed serialVersionUID and leave telling formats apart to
+    // this.
+    private static final int FORMAT = 8;
+    private static final int HEADER_SIZE = 4 + 4 + 32 + 4 + 8;
+
+    static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(
+            "com.craftinginterpreters.lox.*;java.util.*;java.lang.*;!*");
+
+    private final Path directory;
+
+    ProgramCache(Path directory) {
+        this.directory = directory;
+    }
+
+    static Path defaultDirectory() {
+        String dir = System.getenv("LOX_CACHE_DIR");
+        if (dir != null) return Paths.get(dir);
+        return Paths.get(System.getProperty("user.home"), ".cache", "jlox");
+    }
+
+    static byte[] key(String source, boolean lazy) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(Constants.VERSION.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) (lazy ? 1 : 0));
+            digest.update(source.getBytes(StandardCharsets.UTF_8));
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    Program load(byte[] key) {
+        Path file = entry(key);
+        if (!Files.isRegularFile(file)) {
+            Metrics.CACHE_MISSES.increment("disk");
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Program program = decode(buffer, key);
+            if (program != null) {
+                Metrics.CACHE_HITS.increment("disk");
+                return program;
+            }
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            // Fall through and drop the entry.
+        }
+        delete(file);
+        Metrics.CACHE_MISSES.increment("disk");
+        return null;
+    }
+
+    void store(byte[] key, Program program) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(program);
+            }
+            byte[] payload = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT).put(key)
+                    .putInt(payload.length).putLong(crc.getValue());
+
+            // Write next to the entry and rename, so concurrent runs never
+            // see a half written file.
+            Files.createDirectories(directory);
+            Path tmp = Files.createTempFile(directory, "entry", ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                channel.write(new ByteBuffer[]{header.flip(), ByteBuffer.wrap(payload)});
+            }
+            Files.move(tmp, entry(key), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The cache is only an optimization.
+        }
+    }
+
+    private Program decode(ByteBuffer buffer, byte[] key)
+            throws IOException, ClassNotFoundException {
+        if (buffer.remaining() < HEADER_SIZE) return null;
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT) return null;
+        byte[] stored = new byte[key.length];
+        buffer.get(stored);
+        if (!MessageDigest.isEqual(stored, key)) return null;
+        int length = buffer.getInt();
+        long checksum = buffer.getLong();
+        if (length != buffer.remaining()) return null;
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        if (crc.getValue() != checksum) return null;
+
+        try (ObjectInputStream in = new ObjectInputStream(new BufferInputStream(buffer))) {
+            in.setObjectInputFilter(FILTER);
+            return (Program) in.readObject();
+        }
+    }
+
+    private Path entry(byte[] key) {
+        return directory.resolve(HexFormat.of().formatHex(key) + ".loxc");
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Rebuilt and replaced on the next store.
+        }
+    }
+
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+}
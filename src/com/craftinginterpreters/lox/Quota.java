@@ -0,0 +1,87 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/*
+ * Approximate accounting of what a context allocates: string bytes,
+ * environments (and flat mode frames), closures and lists.
+ *
+ * The soft limit applies to one run and starts again at every run; the
+ * hard limit applies to everything the context and its forks ever
+ * allocate. Exceeding either is a runtime error, and once the hard limit is
+ * reached every later allocation in the context fails as well.
+ *
+ * Like Budget, the interpreter counts bytes down in a plain field and only
+ * calls charge() when its allowance runs out, passing what it allocated
+ * since the last charge. An allocation is counted before it is made, so one
+ * huge string concatenation fails before the string is built. Sizes are
+ * rough estimates for a 64-bit JVM, not measurements.
+ */
+final class Quota {
+
+    static final int STRINGS = 0;
+    static final int ENVIRONMENTS = 1;
+    static final int CLOSURES = 2;
+    static final int LISTS = 3;
+    static final int KINDS = 4;
+
+    static final int ENVIRONMENT_BYTES = 96;
+    static final int CLOSURE_BYTES = 40;
+    static final int FRAME_BYTES = 32;
+    static final int LIST_BYTES = 32;
+    static final int REFERENCE_BYTES = 8;
+    static final int STRING_BYTES = 40;
+
+    private static final long INTERVAL = 1 << 16;
+
+    private final long soft;
+    private final long hard;
+
+    private final long[] run = new long[KINDS];
+    private final long[] total = new long[KINDS];
+    private long runBytes;
+    private long totalBytes;
+
+    // soft or hard may be Long.MAX_VALUE for no limit.
+    Quota(long soft, long hard) {
+        this.soft = soft;
+        this.hard = hard;
+    }
+
+    synchronized void reset() {
+        Arrays.fill(run, 0);
+        runBytes = 0;
+    }
+
+    // Adds what an interpreter allocated since its last charge and clears
+    // its counts; returns how many more bytes it may allocate before the
+    // next charge.
+    synchronized long charge(long[] allocated, Token where) {
+        settle(allocated);
+        if (totalBytes > hard) {
+            throw new RuntimeError(where, "Hard memory limit of " + hard +
+                    " bytes exceeded " + breakdown(total) + ".");
+        }
+        if (runBytes > soft) {
+            throw new RuntimeError(where, "Memory limit of " + soft +
+                    " bytes exceeded " + breakdown(run) + ".");
+        }
+        return Math.min(INTERVAL, Math.min(soft - runBytes, hard - totalBytes));
+    }
+
+    // Counts allocations without checking them, at the end of a run.
+    synchronized void settle(long[] allocated) {
+        for (int kind = 0; kind < KINDS; kind++) {
+            run[kind] += allocated[kind];
+            total[kind] += allocated[kind];
+            runBytes += allocated[kind];
+            totalBytes += allocated[kind];
+            allocated[kind] = 0;
+        }
+    }
+
+    private static String breakdown(long[] bytes) {
+        return "(strings " + bytes[STRINGS] + ", environments " + bytes[ENVIRONMENTS] +
+                ", closures " + bytes[CLOSURES] + ", lists " + bytes[LISTS] + ")";
+    }
+}
@@ -13,11 +13,24 @@ public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
     }
     private FunType currentFun = FunType.NONE;
 
-    private final Interpreter interpreter;
+    private final ErrorReporter reporter;
     private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private boolean hadError = false;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    Resolver(ErrorReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    boolean hadError() {
+        return hadError;
+    }
+
+    // Resolves a lazily parsed function body against the scopes captured
+    // at its declaration.
+    void resolveBody(List<Map<String, Boolean>> captured, List<Stmt> statements) {
+        scopes.addAll(captured);
+        currentFun = FunType.FUNCTION;
+        resolve(statements);
     }
 
     @Override
@@ -42,19 +55,25 @@ public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
     public Void visitVariableExpr(Expr.Variable expr) {
         if (!scopes.isEmpty() &&
                 scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Lox.error(expr.name,
+            error(expr.name,
                     "Can't read local variable in its own initializer.");
         }
 
-        var varName = expr.name.lexeme;
+        resolveLocal(expr, expr.name);
+        return null;
+    }
+
+    // Records on expr how many scopes out name is defined, or leaves -1
+    // for a global.
+    private void resolveLocal(Expr expr, Token name) {
+        var varName = name.lexeme;
         var size = scopes.size();
         for(var i = size - 1; i >= 0; i--) {
             if(scopes.get(i).containsKey(varName) && scopes.get(i).get(varName)) {
-                interpreter.resolve(expr, size - 1 -i);
+                expr.depth = size - 1 - i;
                 break;
             };
         }
-        return null;
     }
 
     private void define(Token name) {
@@ -66,12 +85,17 @@ public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
         if(scopes.isEmpty()) return;
         var scope = scopes.peek();
         if(scope.containsKey(name.lexeme)) {
-            Lox.error(name,"Variable '" + name.lexeme +"' is already declared in this scope.");
+            error(name,"Variable '" + name.lexeme +"' is already declared in this scope.");
         }
         scope.put(name.lexeme, false);
     }
 
 
+    private void error(Token token, String message) {
+        reporter.error(token, message);
+        hadError = true;
+    }
+
     private void beginScope() {
         scopes.add(new HashMap<>());
     }
@@ -92,6 +116,14 @@ public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
         }
     }
 
+    private void resolve(FunBody body) {
+        if (body.isParsed()) {
+            resolve(body.statements(reporter));
+        } else {
+            body.capture(scopes);
+        }
+    }
+
     private void resolve(Stmt stmt) {
         stmt.accept(this);
     }
@@ -103,6 +135,7 @@ public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.expression);
+        resolveLocal(expr, expr.name);
         return null;
     }
 
@@ -147,7 +180,7 @@ public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
             declare(param);
             define(param);
         }
-        resolve(expr.statements);
+        resolve(expr.body);
         endScope();
         currentFun = enclosingFun;
         return null;
@@ -198,7 +231,7 @@ public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
             declare(param);
             define(param);
         }
-        resolve(stmt.block);
+        resolve(stmt.body);
         endScope();
 
         currentFun = enclosingFun;
@@ -208,7 +241,7 @@ public class Resolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if(currentFun == FunType.NONE) {
-            Lox.error(stmt.keyword, "return statement not inside a function.");
+            error(stmt.keyword, "return statement not inside a function.");
         }
         resolve(stmt.expression);
         return null;
@@ -5,6 +5,9 @@ public class Return extends RuntimeException {
     private final Object value;
 
     Return(Object value) {
+        // Used for control flow only: skip the stack trace, which would
+        // otherwise dominate the cost of every call.
+        super(null, null, false, false);
         this.value = value;
     }
 
@@ -7,4 +7,14 @@ public class RuntimeError extends RuntimeException {
         super(message);
         this.token = token;
     }
+
+    // For natives, which do not know where they were called from; the
+    // call expression fills the token in with at().
+    RuntimeError(String message) {
+        this(null, message);
+    }
+
+    RuntimeError at(Token call) {
+        return token != null ? this : new RuntimeError(call, getMessage());
+    }
 }
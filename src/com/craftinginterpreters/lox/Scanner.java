@@ -10,6 +10,7 @@ import static com.craftinginterpreters.lox.TokenType.*;
 public class Scanner {
 
     private final String source;
+    private final ErrorReporter reporter;
     private final List<Token> tokens = new ArrayList<>();
 
     private int start = 0;
@@ -40,8 +41,9 @@ public class Scanner {
     }
 
 
-    public Scanner(final String source) {
+    public Scanner(final String source, ErrorReporter reporter) {
         this.source = source;
+        this.reporter = reporter;
     }
 
     public List<Token> scanTokens() {
@@ -91,7 +93,7 @@ public class Scanner {
                 } else if(isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Invalid character: " + c);
+                    reporter.error(line, "Invalid character: " + c);
                 }
         }
     }
@@ -116,10 +118,10 @@ public class Scanner {
             advance();
         }
         if(isAtEnd()) {
-            Lox.error(line, "ERROR parse string: Unexpected EOF");
+            reporter.error(line, "ERROR parse string: Unexpected EOF");
         }
         if(!match('"')){
-            Lox.error(line, "ERROR parse string: String should end with '\"'");
+            reporter.error(line, "ERROR parse string: String should end with '\"'");
         }
         String literal = source.substring(start + 1, current - 1);
 
@@ -0,0 +1,253 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
+
+/*
+ * Runs a program on several threads where Effects shows that this cannot
+ * change what it does (--parallel).
+ *
+ * Top-level statements are grouped into batches in which no statement
+ * reads a global that an earlier one in the batch writes. Each statement
+ * of a batch runs in its own fork of the interpreter, so all of them see
+ * the globals as they were before the batch. Their writes are then merged
+ * back in program order, so the last writer wins as it would have.
+ *
+ * A top-level for loop whose body writes no globals and never assigns the
+ * loop variable runs its iterations in chunks on several forks. Its bounds
+ * must be a number literal or a global the body does not write.
+ *
+ * Every fork prints into a buffer, and the buffers are copied to the real
+ * output in program order. After a runtime error the work that would have
+ * come after it is discarded, so what is printed and defined matches a
+ * sequential run.
+ */
+class Scheduler {
+
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final Interpreter main;
+
+    Scheduler(Interpreter main) {
+        this.main = main;
+    }
+
+    void interpret(List<Stmt> statements) {
+        main.counting = LoxEvents.counting;
+        try {
+            run(statements);
+        } catch (RuntimeError error) {
+            main.reporter.runtimeError(error);
+        }
+    }
+
+    private void run(List<Stmt> statements) {
+        Effects effects = new Effects(statements, main.globals, main.overlay);
+        int i = 0;
+        while (i < statements.size()) {
+            Stmt stmt = statements.get(i);
+            Loop loop = Loop.match(stmt, effects);
+            if (loop != null) {
+                runLoop(loop);
+                i++;
+                continue;
+            }
+
+            Effects.Summary summary = effects.of(stmt);
+            if (summary.unknown) {
+                main.execute(stmt);
+                i++;
+                continue;
+            }
+
+            List<Stmt> batch = new ArrayList<>();
+            batch.add(stmt);
+            Set<String> written = new HashSet<>(summary.writes);
+            int heavy = summary.heavy ? 1 : 0;
+            for (i++; i < statements.size(); i++) {
+                Stmt next = statements.get(i);
+                Effects.Summary effect = effects.of(next);
+                if (effect.unknown || effect.dependsOn(written)
+                        || Loop.match(next, effects) != null) {
+                    break;
+                }
+                batch.add(next);
+                written.addAll(effect.writes);
+                if (effect.heavy) heavy++;
+            }
+
+            // Not worth a fork unless two statements can overlap.
+            if (heavy < 2) {
+                for (Stmt each : batch) {
+                    main.execute(each);
+                }
+            } else {
+                runBatch(batch);
+            }
+        }
+    }
+
+    private void runBatch(List<Stmt> batch) {
+        List<Branch> branches = new ArrayList<>();
+        for (Stmt stmt : batch) {
+            branches.add(new Branch(interpreter -> interpreter.execute(stmt)));
+        }
+        finish(branches);
+    }
+
+    private void runLoop(Loop loop) {
+        Object start = main.evaluate(loop.variable.initializer);
+        Object bound = main.evaluate(loop.condition.right);
+        long count = loop.count(start, bound);
+        if (count < 2) {
+            main.execute(loop.stmt);
+            return;
+        }
+
+        double first = (double) start;
+        int chunks = (int) Math.min(count,
+                (long) Concurrency.POOL.getParallelism() * CHUNKS_PER_THREAD);
+        List<Branch> branches = new ArrayList<>();
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            long from = count * chunk / chunks;
+            long to = count * (chunk + 1) / chunks;
+            branches.add(new Branch(interpreter -> {
+                for (long k = from; k < to; k++) {
+                    Environment scope = new Environment(interpreter.globals);
+                    scope.define(loop.variable.name.lexeme, first + k);
+                    interpreter.executeBlock(List.of(loop.body), new Environment(scope));
+                }
+            }));
+        }
+        finish(branches);
+    }
+
+    // Waits for the branches in order, copying their output and merging
+    // their globals; stops at the first runtime error.
+    private void finish(List<Branch> branches) {
+        for (Branch branch : branches) {
+            branch.task.join();
+            main.out.write(branch.output.toByteArray(), 0, branch.output.size());
+            main.out.flush();
+            branch.interpreter.overlay.written(main.globals).forEach((name, value) ->
+                    main.globals.define(name, value, main.overlay));
+            if (branch.error != null) throw branch.error;
+        }
+    }
+
+    private interface Work {
+        void run(Interpreter interpreter);
+    }
+
+    private final class Branch {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Interpreter interpreter;
+        final ForkJoinTask<?> task;
+        RuntimeError error;
+
+        Branch(Work work) {
+            this.interpreter = main.fork(new PrintStream(output), main.reporter);
+            this.task = Concurrency.POOL.submit(() -> {
+                try {
+                    work.run(interpreter);
+                } catch (RuntimeError e) {
+                    error = e;
+                }
+            });
+        }
+    }
+
+    // A for loop as the Parser desugars it:
+    //   { var i = start; while (i < bound) { body; i = i + 1; } }
+    private static final class Loop {
+        final Stmt stmt;
+        final Stmt.Var variable;
+        final Expr.Binary condition;
+        final Stmt body;
+
+        private Loop(Stmt stmt, Stmt.Var variable, Expr.Binary condition, Stmt body) {
+            this.stmt = stmt;
+            this.variable = variable;
+            this.condition = condition;
+            this.body = body;
+        }
+
+        static Loop match(Stmt stmt, Effects effects) {
+            if (!(stmt instanceof Stmt.Block)) return null;
+            List<Stmt> outer = ((Stmt.Block) stmt).statements;
+            if (outer.size() != 2 || !(outer.get(0) instanceof Stmt.Var)
+                    || !(outer.get(1) instanceof Stmt.While)) {
+                return null;
+            }
+            Stmt.Var variable = (Stmt.Var) outer.get(0);
+            Stmt.While loop = (Stmt.While) outer.get(1);
+            String name = variable.name.lexeme;
+            if (!isConstant(variable.initializer)) return null;
+
+            if (!(loop.condition instanceof Expr.Binary)) return null;
+            Expr.Binary condition = (Expr.Binary) loop.condition;
+            TokenType operator = condition.operator.type;
+            if ((operator != TokenType.LESS && operator != TokenType.LESS_EQUAL)
+                    || !isVariable(condition.left, name) || !isConstant(condition.right)) {
+                return null;
+            }
+
+            if (!(loop.whileStmt instanceof Stmt.Block)) return null;
+            List<Stmt> inner = ((Stmt.Block) loop.whileStmt).statements;
+            if (inner.size() != 2 || !isIncrement(inner.get(1), name)) return null;
+            Stmt body = inner.get(0);
+
+            Effects.Summary summary = effects.of(body);
+            if (summary.unknown || !summary.writes.isEmpty() || !summary.heavy
+                    || summary.localWrites.contains(name)) {
+                return null;
+            }
+            return new Loop(stmt, variable, condition, body);
+        }
+
+        // Iterations a sequential run would make, or -1 when the bounds
+        // are not whole numbers the doubles count exactly.
+        long count(Object start, Object bound) {
+            if (!(start instanceof Double) || !(bound instanceof Double)) return -1;
+            double from = (double) start;
+            double to = (double) bound;
+            double limit = 1L << 52;
+            if (from != Math.floor(from) || Math.abs(from) > limit || Math.abs(to) > limit) {
+                return -1;
+            }
+            double count = condition.operator.type == TokenType.LESS
+                    ? Math.ceil(to - from) : Math.floor(to - from) + 1;
+            return count > 0 ? (long) count : 0;
+        }
+
+        private static boolean isConstant(Expr expr) {
+            return (expr instanceof Expr.Literal && ((Expr.Literal) expr).value instanceof Double)
+                    || (expr instanceof Expr.Variable && ((Expr.Variable) expr).depth == -1);
+        }
+
+        private static boolean isVariable(Expr expr, String name) {
+            return expr instanceof Expr.Variable
+                    && ((Expr.Variable) expr).name.lexeme.equals(name)
+                    && ((Expr.Variable) expr).depth != -1;
+        }
+
+        private static boolean isIncrement(Stmt stmt, String name) {
+            if (!(stmt instanceof Stmt.Expression)) return false;
+            Expr expr = ((Stmt.Expression) stmt).expression;
+            if (!(expr instanceof Expr.Assign)) return false;
+            Expr.Assign assign = (Expr.Assign) expr;
+            if (!assign.name.lexeme.equals(name) || !(assign.expression instanceof Expr.Binary)) {
+                return false;
+            }
+            Expr.Binary sum = (Expr.Binary) assign.expression;
+            return sum.operator.type == TokenType.PLUS && isVariable(sum.left, name)
+                    && sum.right instanceof Expr.Literal
+                    && Double.valueOf(1).equals(((Expr.Literal) sum.right).value);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+ * Saves the global environment of an interpreter, typically after a
+ * prelude script has run, so later runs can start from that state instead
+ * of evaluating the prelude again.
+ *
+ * Functions keep their closures and their resolved bodies. Environments
+ * that a fork froze are written with the writes of the interpreter's
+ * Overlay applied, so the snapshot holds what this interpreter sees.
+ * Natives cannot be serialized; they are written by name and bound to the
+ * natives of the restoring interpreter. Any other value that cannot be
+ * serialized, like a task or a channel, fails the save.
+ */
+class Snapshot {
+
+    private static final int MAGIC = 0x4c4f5853; // "LOXS"
+
+    static void save(Interpreter interpreter, Path path) throws IOException {
+        try (OutputStream file = Files.newOutputStream(path);
+             ObjectOutputStream out = new ObjectOutputStream(file) {
+                 {
+                     enableReplaceObject(true);
+                 }
+
+                 @Override
+                 protected Object replaceObject(Object obj) throws IOException {
+                     if (obj instanceof Environment) {
+                         return ((Environment) obj).withWrites(interpreter.overlay);
+                     }
+                     if (obj instanceof Native) return new NativeRef(((Native) obj).name());
+                     if (!(obj instanceof Serializable)) {
+                         throw new IOException("Cannot snapshot " + obj +
+                                 "; only functions, lists and plain values can be saved.");
+                     }
+                     return obj;
+                 }
+             }) {
+            out.writeInt(MAGIC);
+            out.writeUTF(Constants.VERSION);
+            out.writeObject(interpreter.globals);
+        }
+    }
+
+    static void restore(Interpreter interpreter, Path path) throws IOException {
+        Environment fresh = interpreter.globals;
+        try (InputStream file = Files.newInputStream(path);
+             ObjectInputStream in = new ObjectInputStream(file) {
+                 {
+                     enableResolveObject(true);
+                 }
+
+                 @Override
+                 protected Object resolveObject(Object obj) {
+                     if (obj instanceof NativeRef) {
+                         return fresh.values().get(((NativeRef) obj).name);
+                     }
+                     return obj;
+                 }
+             }) {
+            in.setObjectInputFilter(ProgramCache.FILTER);
+            if (in.readInt() != MAGIC || !in.readUTF().equals(Constants.VERSION)) {
+                throw new IOException("Not a snapshot of this interpreter version: " + path);
+            }
+            Environment globals = (Environment) in.readObject();
+
+            // Natives added since the snapshot was taken.
+            fresh.values().forEach(globals.values()::putIfAbsent);
+            interpreter.globals = globals;
+            interpreter.environment = globals;
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Corrupt snapshot: " + path, e);
+        }
+    }
+
+    private static class NativeRef implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final String name;
+
+        NativeRef(String name) {
+            this.name = name;
+        }
+    }
+}
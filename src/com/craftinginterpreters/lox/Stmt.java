@@ -1,8 +1,11 @@
 package com.craftinginterpreters.lox;
 
+import java.io.Serializable;
 import java.util.List;
 
-abstract class Stmt {
+abstract sealed class Stmt implements Serializable {
+  private static final long serialVersionUID = 1L;
+
   interface Visitor<R> {
     R visitIfStmt(If stmt);
     R visitWhileStmt(While stmt);
@@ -14,8 +17,28 @@ abstract class Stmt {
     R visitReturnStmt(Return stmt);
     R visitClassStmt(Class stmt);
   }
-  static class If extends Stmt {
+
+  static final int IF = 0;
+  static final int WHILE = 1;
+  static final int BLOCK = 2;
+  static final int EXPRESSION = 3;
+  static final int PRINT = 4;
+  static final int VAR = 5;
+  static final int FUN = 6;
+  static final int RETURN = 7;
+  static final int CLASS = 8;
+
+  Stmt(int kind) {
+    this.kind = kind;
+  }
+
+  final int kind;
+  int line;
+  static final class If extends Stmt {
+    private static final long serialVersionUID = 1L;
+
     If(Expr condition, Stmt ifBranch, Stmt elseBranch) {
+      super(IF);
       this.condition = condition;
       this.ifBranch = ifBranch;
       this.elseBranch = elseBranch;
@@ -30,8 +53,12 @@ abstract class Stmt {
     final Stmt ifBranch;
     final Stmt elseBranch;
   }
-  static class While extends Stmt {
-    While(Expr condition, Stmt whileStmt) {
+  static final class While extends Stmt {
+    private static final long serialVersionUID = 1L;
+
+    While(Token keyword, Expr condition, Stmt whileStmt) {
+      super(WHILE);
+      this.keyword = keyword;
       this.condition = condition;
       this.whileStmt = whileStmt;
     }
@@ -41,11 +68,15 @@ abstract class Stmt {
       return visitor.visitWhileStmt(this);
     }
 
+    final Token keyword;
     final Expr condition;
     final Stmt whileStmt;
   }
-  static class Block extends Stmt {
+  static final class Block extends Stmt {
+    private static final long serialVersionUID = 1L;
+
     Block(List<Stmt> statements) {
+      super(BLOCK);
       this.statements = statements;
     }
 
@@ -56,8 +87,11 @@ abstract class Stmt {
 
     final List<Stmt> statements;
   }
-  static class Expression extends Stmt {
+  static final class Expression extends Stmt {
+    private static final long serialVersionUID = 1L;
+
     Expression(Expr expression) {
+      super(EXPRESSION);
       this.expression = expression;
     }
 
@@ -68,8 +102,11 @@ abstract class Stmt {
 
     final Expr expression;
   }
-  static class Print extends Stmt {
+  static final class Print extends Stmt {
+    private static final long serialVersionUID = 1L;
+
     Print(Expr expression) {
+      super(PRINT);
       this.expression = expression;
     }
 
@@ -80,8 +117,11 @@ abstract class Stmt {
 
     final Expr expression;
   }
-  static class Var extends Stmt {
+  static final class Var extends Stmt {
+    private static final long serialVersionUID = 1L;
+
     Var(Token name, Expr initializer) {
+      super(VAR);
       this.name = name;
       this.initializer = initializer;
     }
@@ -94,11 +134,14 @@ abstract class Stmt {
     final Token name;
     final Expr initializer;
   }
-  static class Fun extends Stmt {
-    Fun(Token name, List<Token> parameters, List<Stmt> block) {
+  static final class Fun extends Stmt {
+    private static final long serialVersionUID = 1L;
+
+    Fun(Token name, List<Token> parameters, FunBody body) {
+      super(FUN);
       this.name = name;
       this.parameters = parameters;
-      this.block = block;
+      this.body = body;
     }
 
     @Override
@@ -108,10 +151,13 @@ abstract class Stmt {
 
     final Token name;
     final List<Token> parameters;
-    final List<Stmt> block;
+    final FunBody body;
   }
-  static class Return extends Stmt {
+  static final class Return extends Stmt {
+    private static final long serialVersionUID = 1L;
+
     Return(Token keyword, Expr expression) {
+      super(RETURN);
       this.keyword = keyword;
       this.expression = expression;
     }
@@ -124,8 +170,11 @@ abstract class Stmt {
     final Token keyword;
     final Expr expression;
   }
-  static class Class extends Stmt {
+  static final class Class extends Stmt {
+    private static final long serialVersionUID = 1L;
+
     Class(Token name, List<Fun> methods) {
+      super(CLASS);
       this.name = name;
       this.methods = methods;
     }
@@ -0,0 +1,65 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+
+/*
+ * Interpreter that dispatches on the kind ordinal of a node with a single
+ * switch instead of the accept() / visit double dispatch. Being final, the
+ * visit methods it calls are monomorphic and the JIT can inline the whole
+ * evaluation loop.
+ */
+final class SwitchInterpreter extends Interpreter {
+
+    SwitchInterpreter() {
+        super();
+    }
+
+    SwitchInterpreter(PrintStream out, ErrorReporter reporter) {
+        super(out, reporter);
+    }
+
+    @Override
+    Interpreter create(PrintStream out, ErrorReporter reporter) {
+        return new SwitchInterpreter(out, reporter);
+    }
+
+    @Override
+    Object evaluate(Expr expr) {
+        return dispatch(expr);
+    }
+
+    @Override
+    void execute(Stmt stmt) {
+        if (counting) LoxEvents.statement(stmt.kind);
+        dispatch(stmt);
+    }
+
+    private Object dispatch(Expr expr) {
+        switch (expr.kind) {
+            case Expr.ASSIGN: return visitAssignExpr((Expr.Assign) expr);
+            case Expr.BINARY: return visitBinaryExpr((Expr.Binary) expr);
+            case Expr.GROUPING: return evaluate(((Expr.Grouping) expr).expression);
+            case Expr.LITERAL: return ((Expr.Literal) expr).value;
+            case Expr.UNARY: return visitUnaryExpr((Expr.Unary) expr);
+            case Expr.CALL: return visitCallExpr((Expr.Call) expr);
+            case Expr.VARIABLE: return visitVariableExpr((Expr.Variable) expr);
+            case Expr.INLINE_FUN: return visitInlineFunExpr((Expr.InlineFun) expr);
+            default: throw new IllegalStateException("Unknown expression kind " + expr.kind);
+        }
+    }
+
+    private void dispatch(Stmt stmt) {
+        switch (stmt.kind) {
+            case Stmt.IF: visitIfStmt((Stmt.If) stmt); break;
+            case Stmt.WHILE: visitWhileStmt((Stmt.While) stmt); break;
+            case Stmt.BLOCK: visitBlockStmt((Stmt.Block) stmt); break;
+            case Stmt.EXPRESSION: evaluate(((Stmt.Expression) stmt).expression); break;
+            case Stmt.PRINT: visitPrintStmt((Stmt.Print) stmt); break;
+            case Stmt.VAR: visitVarStmt((Stmt.Var) stmt); break;
+            case Stmt.FUN: visitFunStmt((Stmt.Fun) stmt); break;
+            case Stmt.RETURN: visitReturnStmt((Stmt.Return) stmt); break;
+            case Stmt.CLASS: break;
+            default: throw new IllegalStateException("Unknown statement kind " + stmt.kind);
+        }
+    }
+}
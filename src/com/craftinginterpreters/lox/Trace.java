@@ -0,0 +1,73 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.List;
+
+/*
+ * An instrument that prints every statement, call, return and runtime
+ * error as it happens (--trace), indented by call depth:
+ *
+ *   [line 5] print
+ *   [line 5] call fib(10)
+ *     [line 2] if
+ *     ...
+ *   [line 5] fib returned 55
+ */
+final class Trace implements Instrument {
+
+    private final PrintStream out;
+    private int depth = 0;
+
+    Trace(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void statement(Interpreter interpreter, Stmt stmt) {
+        line(stmt.line, kind(stmt));
+    }
+
+    @Override
+    public void enterCall(Interpreter interpreter, Expr.Call call, LoxCallable function,
+                          List<Object> arguments) {
+        StringBuilder text = new StringBuilder("call ").append(function.name()).append('(');
+        for (int i = 0; i < arguments.size(); i++) {
+            if (i > 0) text.append(", ");
+            text.append(interpreter.stringify(arguments.get(i)));
+        }
+        line(call.paren.line, text.append(')').toString());
+        depth++;
+    }
+
+    @Override
+    public void exitCall(Interpreter interpreter, Expr.Call call, LoxCallable function,
+                         Object result, boolean threw) {
+        depth--;
+        line(call.paren.line, function.name() +
+                (threw ? " failed" : " returned " + interpreter.stringify(result)));
+    }
+
+    @Override
+    public void runtimeError(Interpreter interpreter, RuntimeError error) {
+        line(error.token.line, "error: " + error.getMessage());
+    }
+
+    private void line(int line, String text) {
+        out.println("  ".repeat(depth) + "[line " + line + "] " + text);
+    }
+
+    static String kind(Stmt stmt) {
+        return switch (stmt.kind) {
+            case Stmt.IF -> "if";
+            case Stmt.WHILE -> "while";
+            case Stmt.BLOCK -> "block";
+            case Stmt.EXPRESSION -> "expression";
+            case Stmt.PRINT -> "print";
+            case Stmt.VAR -> "var " + ((Stmt.Var) stmt).name.lexeme;
+            case Stmt.FUN -> "fun " + ((Stmt.Fun) stmt).name.lexeme;
+            case Stmt.RETURN -> "return";
+            case Stmt.CLASS -> "class " + ((Stmt.Class) stmt).name.lexeme;
+            default -> "statement";
+        };
+    }
+}
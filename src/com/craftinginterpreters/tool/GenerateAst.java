@@ -21,24 +21,29 @@ public class GenerateAst {
                 "Unary    : Token operator, Expr right",
                 "Call     : Expr callee, Token paren, List<Expr> arguments",
                 "Variable : Token name",
-                "InlineFun: List<Token> parameters, List<Stmt> statements"
+                "InlineFun: List<Token> parameters, FunBody body"
+        ), Arrays.asList(
+                "int depth = -1"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
                 "If         : Expr condition, Stmt ifBranch, Stmt elseBranch",
-                "While      : Expr condition, Stmt whileStmt",
+                "While      : Token keyword, Expr condition, Stmt whileStmt",
                 "Block      : List<Stmt> statements",
                 "Expression : Expr expression",
                 "Print      : Expr expression",
                 "Var        : Token name, Expr initializer",
-                "Fun        : Token name, List<Token> parameters, List<Stmt> block",
+                "Fun        : Token name, List<Token> parameters, FunBody body",
                 "Return     : Token keyword, Expr expression",
                 "Class      : Token name, List<Fun> methods"
+        ), Arrays.asList(
+                "int line"
         ));
     }
 
     private static void defineAst(
-            String outputDir, String baseName, List<String> types)
+            String outputDir, String baseName, List<String> types,
+            List<String> caches)
             throws IOException {
         String path = outputDir + "/" + baseName + ".java";
         System.out.println("path: "+ path);
@@ -46,11 +51,17 @@ public class GenerateAst {
 
         writer.println("package com.craftinginterpreters.lox;");
         writer.println();
+        writer.println("import java.io.Serializable;");
         writer.println("import java.util.List;");
         writer.println();
-        writer.println("abstract class " + baseName + " {");
+        writer.println("abstract sealed class " + baseName + " implements Serializable {");
+        // Fixed, so that whether a cached program still reads is up to
+        // ProgramCache.FORMAT and not to what the compiler derives.
+        writer.println("  private static final long serialVersionUID = 1L;");
+        writer.println();
 
         defineVisitor(writer, baseName, types);
+        defineKinds(writer, baseName, types, caches);
 
         // The AST classes.
         for (String type : types) {
@@ -68,6 +79,33 @@ public class GenerateAst {
         writer.close();
     }
 
+    // An ordinal per node class, so a pass can dispatch with one switch
+    // instead of a call to accept(), plus the fields later passes fill in:
+    // the Resolver's depth and the Parser's line.
+    private static void defineKinds(
+            PrintWriter writer, String baseName, List<String> types,
+            List<String> caches) {
+        writer.println();
+        for (int i = 0; i < types.size(); i++) {
+            String typeName = types.get(i).split(":")[0].trim();
+            writer.println("  static final int " + constantName(typeName) +
+                    " = " + i + ";");
+        }
+        writer.println();
+        writer.println("  " + baseName + "(int kind) {");
+        writer.println("    this.kind = kind;");
+        writer.println("  }");
+        writer.println();
+        writer.println("  final int kind;");
+        for (String cache : caches) {
+            writer.println("  " + cache + ";");
+        }
+    }
+
+    private static String constantName(String typeName) {
+        return typeName.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
+    }
+
     private static void defineVisitor(
             PrintWriter writer, String baseName, List<String> types) {
         writer.println("  interface Visitor<R> {");
@@ -84,11 +122,14 @@ public class GenerateAst {
     private static void defineType(
             PrintWriter writer, String baseName,
             String className, String fieldList) {
-        writer.println("  static class " + className + " extends " +
+        writer.println("  static final class " + className + " extends " +
                 baseName + " {");
+        writer.println("    private static final long serialVersionUID = 1L;");
+        writer.println();
 
         // Constructor.
         writer.println("    " + className + "(" + fieldList + ") {");
+        writer.println("      super(" + constantName(className) + ");");
 
         // Store parameters in fields.
         String[] fields = fieldList.split(", ");